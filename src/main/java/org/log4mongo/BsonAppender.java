@@ -17,10 +17,15 @@
 
 package org.log4mongo;
 
+import com.google.common.collect.Lists;
 import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
 import org.apache.log4j.spi.LoggingEvent;
 import org.bson.Document;
 
+import java.util.Date;
+import java.util.List;
+
 /**
  * Abstract Log4J Appender class that stores log events in the BSON format. Concrete implementation
  * classes must implement append(DBObject) to store the BSON representation of a LoggingEvent.
@@ -102,8 +107,39 @@ import org.bson.Document;
  */
 public abstract class BsonAppender extends AppenderSkeleton {
 
+    /**
+     * Max number of recorded events in all scopes of the flight recorder
+     */
+    private static final int MAX_FLIGHT_RECORDS = 100000;
+
     private LoggingEventBsonifier bsonifier = new LoggingEventBsonifierImpl();
 
+    private volatile EventCounters eventCounters = null;
+
+    private String samplingRules = null;
+
+    private volatile EventSampler eventSampler = null;
+
+    private long collapseWindowMillis = 0;
+
+    private BurstCollapser burstCollapser = null;
+
+    private long lastCollapseFlush = 0;
+
+    private Level flightRecorderLevel = null;
+
+    private Level flightRecorderTriggerLevel = Level.ERROR;
+
+    private String flightRecorderTraceKey = null;
+
+    private int flightRecorderCapacity = 256;
+
+    private long flightRecorderIdleMillis = 60000;
+
+    private boolean flightRecorderLocationInfo = false;
+
+    private FlightRecorder flightRecorder = null;
+
     /**
      * @see org.apache.log4j.Appender#requiresLayout()
      */
@@ -111,12 +147,288 @@ public abstract class BsonAppender extends AppenderSkeleton {
         return (false);
     }
 
+    /**
+     * Events under the threshold are counted here without entering the synchronized
+     * AppenderSkeleton#doAppend if counting is enabled.
+     *
+     * @see org.apache.log4j.AppenderSkeleton#doAppend(org.apache.log4j.spi.LoggingEvent)
+     */
+    @Override
+    public void doAppend(final LoggingEvent loggingEvent) {
+        if (eventCounters != null && !isAsSevereAsThreshold(loggingEvent.getLevel())) {
+            countEvent(loggingEvent, true);
+            return;
+        }
+        super.doAppend(loggingEvent);
+    }
+
     /**
      * @see org.apache.log4j.AppenderSkeleton#append(org.apache.log4j.spi.LoggingEvent)
      */
     @Override
     protected void append(final LoggingEvent loggingEvent) {
-        append(bsonifier.bsonify(loggingEvent), loggingEvent);
+        final FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            final Level level = loggingEvent.getLevel();
+            if (!level.isGreaterOrEqual(flightRecorderLevel)) {
+                recorder.record(loggingEvent, System.currentTimeMillis(), flightRecorderLocationInfo && !isLean());
+                return;
+            }
+            if (level.isGreaterOrEqual(flightRecorderTriggerLevel)) {
+                // Context of the error, written in one batch without sampling and collapsing
+                final List<Document> documents = Lists.newArrayList();
+                final List<LoggingEvent> events = Lists.newArrayList();
+                for (LoggingEvent recorded : recorder.take(loggingEvent)) {
+                    countEvent(recorded, false);
+                    final Document document = bsonifier.bsonify(recorded, isLean());
+                    if (document != null) {
+                        documents.add(document.append("flightRecorder", true));
+                        events.add(recorded);
+                    }
+                }
+                if (!documents.isEmpty()) {
+                    append(documents, events);
+                }
+            }
+        }
+        final EventSampler sampler = eventSampler;
+        final double weight = sampler == null ? 1
+                : sampler.sample(loggingEvent.getLoggerName(), loggingEvent.getLevel(), System.currentTimeMillis());
+        if (weight <= 0) {
+            countEvent(loggingEvent, true);
+            return;
+        }
+        BurstCollapser.Window window = null;
+        if (burstCollapser != null) {
+            final long now = System.currentTimeMillis();
+            if (now - lastCollapseFlush >= collapseWindowMillis) {
+                flushCollapsedEvents();
+            }
+            window = burstCollapser.admit(loggingEvent, now);
+            if (window == null) {
+                // Counted in the summary
+                countEvent(loggingEvent, true);
+                return;
+            }
+        }
+        countEvent(loggingEvent, false);
+        final Document document = bsonifier.bsonify(loggingEvent, isLean());
+        if (window != null && document != null) {
+            window.setDocument(new Document(document));
+        }
+        if (weight != 1 && document != null) {
+            document.append("samplingWeight", weight);
+        }
+        append(document, loggingEvent);
+    }
+
+    /**
+     * Store the documents of events in one batch, such as the recorded events of a scope. They are
+     * appended one by one by default.
+     *
+     * @param documents     BSON representations of the events
+     * @param loggingEvents the events in the same order
+     */
+    protected void append(List<Document> documents, List<LoggingEvent> loggingEvents) {
+        for (int i = 0; i < documents.size(); i++) {
+            append(documents.get(i), loggingEvents.get(i));
+        }
+    }
+
+    /**
+     * Write summaries of the closed windows of repeated events, it's called by the appending thread
+     * and should also be called periodically in case no event is appended.
+     */
+    protected synchronized void flushCollapsedEvents() {
+        final BurstCollapser collapser = burstCollapser;
+        if (collapser == null) {
+            return;
+        }
+        lastCollapseFlush = System.currentTimeMillis();
+        for (BurstCollapser.Window window : collapser.drain(lastCollapseFlush)) {
+            if (window.getDocument() == null) {
+                continue;
+            }
+            final Document summary = new Document(window.getDocument())
+                    .append("timestamp", new Date(window.getLastTimestamp()))
+                    .append("collapsed", new Document("count", window.getRepeats())
+                            .append("firstTimestamp", new Date(window.getFirstTimestamp()))
+                            .append("lastTimestamp", new Date(window.getLastTimestamp())));
+            append(summary, window.getFirstEvent());
+        }
+    }
+
+    /**
+     * Discard the recorded events of idle scopes, it should be called periodically.
+     */
+    protected synchronized void expireFlightRecords() {
+        if (flightRecorder != null) {
+            flightRecorder.expire(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Discard all recorded events, e.g. while closing.
+     */
+    protected synchronized void discardFlightRecords() {
+        if (flightRecorder != null) {
+            flightRecorder.clear();
+        }
+    }
+
+    /**
+     * @return true to bsonify events in lean mode, which allocates less while the heap is under pressure
+     */
+    protected boolean isLean() {
+        return false;
+    }
+
+    /**
+     * Count the event if counting is enabled.
+     *
+     * @param loggingEvent the event to count
+     * @param suppressed   true if the event won't be written
+     */
+    protected void countEvent(final LoggingEvent loggingEvent, boolean suppressed) {
+        final EventCounters counters = eventCounters;
+        if (counters != null) {
+            counters.record(loggingEvent.getLoggerName(), loggingEvent.getLevel().toString(),
+                    loggingEvent.getTimeStamp(), suppressed);
+        }
+    }
+
+    /**
+     * @return counters of events per logger, level and minute <i>(null if counting is disabled)</i>
+     */
+    public EventCounters getEventCounters() {
+        return eventCounters;
+    }
+
+    /**
+     * @param eventCounters counters of events per logger, level and minute <i>(may be null to disable counting)</i>
+     */
+    public void setEventCounters(EventCounters eventCounters) {
+        this.eventCounters = eventCounters;
+    }
+
+    public String getSamplingRules() {
+        return samplingRules;
+    }
+
+    /**
+     * @param samplingRules Sampling rates and rate limits per logger prefix and level, see {@link EventSampler}
+     *                      for format <i>(may be null to write all events)</i>.
+     */
+    public void setSamplingRules(String samplingRules) {
+        this.samplingRules = samplingRules;
+        eventSampler = samplingRules == null || samplingRules.trim().isEmpty() ? null : new EventSampler(samplingRules);
+    }
+
+    public long getCollapseWindowMillis() {
+        return collapseWindowMillis;
+    }
+
+    /**
+     * @param collapseWindowMillis Window to collapse repeated events with the same logger, level, message and
+     *                             exception class, only the first one is written and a summary is written
+     *                             after the window <i>(0 to disable)</i>.
+     */
+    public synchronized void setCollapseWindowMillis(long collapseWindowMillis) {
+        if (collapseWindowMillis < 0) throw new RuntimeException("collapseWindowMillis must not be negative");
+        this.collapseWindowMillis = collapseWindowMillis;
+        burstCollapser = collapseWindowMillis > 0 ? new BurstCollapser(collapseWindowMillis, 10000) : null;
+    }
+
+    public String getFlightRecorderLevel() {
+        return flightRecorderLevel == null ? null : flightRecorderLevel.toString();
+    }
+
+    /**
+     * @param flightRecorderLevel Events under this level are kept in memory per scope, and written only if
+     *                            an event of flightRecorderTriggerLevel occurs in the same scope
+     *                            <i>(may be null to disable)</i>.
+     */
+    public synchronized void setFlightRecorderLevel(String flightRecorderLevel) {
+        this.flightRecorderLevel = flightRecorderLevel == null || flightRecorderLevel.trim().isEmpty()
+                ? null : toLevel(flightRecorderLevel);
+        resetFlightRecorder();
+    }
+
+    public String getFlightRecorderTriggerLevel() {
+        return flightRecorderTriggerLevel.toString();
+    }
+
+    /**
+     * @param flightRecorderTriggerLevel Events of this level or above write the recorded events of their scope.
+     */
+    public synchronized void setFlightRecorderTriggerLevel(String flightRecorderTriggerLevel) {
+        this.flightRecorderTriggerLevel = toLevel(flightRecorderTriggerLevel);
+    }
+
+    public String getFlightRecorderTraceKey() {
+        return flightRecorderTraceKey;
+    }
+
+    /**
+     * @param flightRecorderTraceKey MDC key of the trace ID as the scope of recorded events
+     *                               <i>(may be null to use the thread)</i>.
+     */
+    public synchronized void setFlightRecorderTraceKey(String flightRecorderTraceKey) {
+        this.flightRecorderTraceKey = flightRecorderTraceKey == null || flightRecorderTraceKey.trim().isEmpty()
+                ? null : flightRecorderTraceKey.trim();
+        resetFlightRecorder();
+    }
+
+    public int getFlightRecorderCapacity() {
+        return flightRecorderCapacity;
+    }
+
+    /**
+     * @param flightRecorderCapacity Max number of recorded events per scope, older ones are discarded.
+     */
+    public synchronized void setFlightRecorderCapacity(int flightRecorderCapacity) {
+        if (flightRecorderCapacity <= 0 || flightRecorderCapacity > MAX_FLIGHT_RECORDS) {
+            throw new RuntimeException("flightRecorderCapacity must be in [1, " + MAX_FLIGHT_RECORDS + "]");
+        }
+        this.flightRecorderCapacity = flightRecorderCapacity;
+        resetFlightRecorder();
+    }
+
+    public long getFlightRecorderIdleMillis() {
+        return flightRecorderIdleMillis;
+    }
+
+    /**
+     * @param flightRecorderIdleMillis Time after the last recorded event of a scope to discard its events.
+     */
+    public synchronized void setFlightRecorderIdleMillis(long flightRecorderIdleMillis) {
+        if (flightRecorderIdleMillis <= 0) throw new RuntimeException("flightRecorderIdleMillis must be positive");
+        this.flightRecorderIdleMillis = flightRecorderIdleMillis;
+        resetFlightRecorder();
+    }
+
+    public boolean isFlightRecorderLocationInfo() {
+        return flightRecorderLocationInfo;
+    }
+
+    /**
+     * @param flightRecorderLocationInfo True to capture the location of recorded events, it's expensive
+     *                                   and skipped in lean mode. The location is not available otherwise.
+     */
+    public synchronized void setFlightRecorderLocationInfo(boolean flightRecorderLocationInfo) {
+        this.flightRecorderLocationInfo = flightRecorderLocationInfo;
+    }
+
+    private void resetFlightRecorder() {
+        discardFlightRecords();
+        flightRecorder = flightRecorderLevel == null ? null : new FlightRecorder(flightRecorderTraceKey,
+                flightRecorderCapacity, MAX_FLIGHT_RECORDS, flightRecorderIdleMillis, event -> countEvent(event, true));
+    }
+
+    private static Level toLevel(String level) {
+        final Level result = Level.toLevel(level == null ? null : level.trim(), null);
+        if (result == null) throw new RuntimeException("Invalid level " + level);
+        return result;
     }
 
     /**
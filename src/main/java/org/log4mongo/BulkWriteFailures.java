@@ -0,0 +1,127 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.mongodb.ErrorCategory;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Classify the documents of a failed unordered bulk insert by the write errors, so only the
+ * documents failed transiently are retried:
+ * <ul>
+ * <li>Committed: inserted, or inserted by a previous try (duplicate key on _id)</li>
+ * <li>Rejected: invalid documents which will never be inserted, e.g. too large, invalid keys or
+ * duplicate key on another unique index</li>
+ * <li>Retry: documents failed by other errors, or all documents not rejected if the write concern
+ * failed</li>
+ * </ul>
+ */
+public class BulkWriteFailures {
+
+    /**
+     * BadValue, TypeMismatch, DollarPrefixedFieldName, InvalidIdField, DottedFieldName,
+     * DocumentValidationFailure, BSONObjectTooLarge, KeyTooLong
+     */
+    private static final Set<Integer> PERMANENT_ERROR_CODES = Sets.newHashSet(2, 14, 52, 53, 57, 121, 10334, 17280);
+
+    /**
+     * Index name of _id in duplicate key messages, "index: _id_" or "index: db.coll.$_id_" on old servers
+     */
+    private static final Pattern ID_INDEX = Pattern.compile("index: (\\S*\\$)?_id_(\\s|$)");
+
+    private final List<Document> retry = Lists.newArrayList();
+
+    private final Map<Document, BulkWriteError> rejected = new IdentityHashMap<>();
+
+    private final List<Document> committed = Lists.newArrayList();
+
+    /**
+     * @param documents          documents of the bulk insert in order
+     * @param errors             write errors, indexed by the documents
+     * @param writeConcernFailed true if the write concern failed
+     */
+    public BulkWriteFailures(List<Document> documents, List<BulkWriteError> errors, boolean writeConcernFailed) {
+        final BulkWriteError[] documentErrors = new BulkWriteError[documents.size()];
+        for (BulkWriteError error : errors) {
+            if (error.getIndex() >= 0 && error.getIndex() < documentErrors.length) {
+                documentErrors[error.getIndex()] = error;
+            }
+        }
+        for (int i = 0; i < documentErrors.length; i++) {
+            final Document document = documents.get(i);
+            final BulkWriteError error = documentErrors[i];
+            if (error == null || isDuplicate(error)) {
+                if (writeConcernFailed) {
+                    retry.add(document);
+                } else {
+                    committed.add(document);
+                }
+            } else if (isPermanent(error)) {
+                rejected.put(document, error);
+            } else {
+                retry.add(document);
+            }
+        }
+    }
+
+    /**
+     * A duplicate key on another unique index means the document conflicts with a different one,
+     * only a duplicate _id proves it was inserted by a previous try.
+     *
+     * @param error write error
+     * @return true if the document is inserted by a previous try
+     */
+    public static boolean isDuplicate(WriteError error) {
+        if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+            return false;
+        }
+        final BsonDocument details = error.getDetails();
+        if (details != null && details.isDocument("keyPattern")) {
+            return details.getDocument("keyPattern").equals(new BsonDocument("_id", new BsonInt32(1)));
+        }
+        return error.getMessage() != null && ID_INDEX.matcher(error.getMessage()).find();
+    }
+
+    /**
+     * @param error write error
+     * @return true if the document will never be inserted
+     */
+    public static boolean isPermanent(WriteError error) {
+        if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+            return !isDuplicate(error);
+        }
+        return PERMANENT_ERROR_CODES.contains(error.getCode());
+    }
+
+    /**
+     * @return documents to write again in order
+     */
+    public List<Document> getRetry() {
+        return retry;
+    }
+
+    /**
+     * @return invalid documents and their errors by identity
+     */
+    public Map<Document, BulkWriteError> getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return documents stored
+     */
+    public List<Document> getCommitted() {
+        return committed;
+    }
+
+}
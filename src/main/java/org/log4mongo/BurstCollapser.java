@@ -0,0 +1,190 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+import org.bson.Document;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collapse bursts of identical events (same logger, level, message and exception class) in a time
+ * window, the first event is written and the repeats are only counted, a summary is written after
+ * the window closes.
+ * <p>
+ * It's not thread safe, it's used under the lock of the appender.
+ */
+public class BurstCollapser {
+
+    private final long windowMillis;
+
+    private final int maxWindows;
+
+    private final Map<Key, Window> windows = new HashMap<>();
+
+    private final List<Window> closed = Lists.newArrayList();
+
+    /**
+     * @param windowMillis length of the window started by the first event
+     * @param maxWindows   max number of open windows, events are not collapsed if there are too many
+     */
+    public BurstCollapser(long windowMillis, int maxWindows) {
+        if (windowMillis <= 0 || maxWindows <= 0) {
+            throw new RuntimeException("windowMillis and maxWindows must be positive");
+        }
+        this.windowMillis = windowMillis;
+        this.maxWindows = maxWindows;
+    }
+
+    /**
+     * @param event the event
+     * @param now   current time in milliseconds
+     * @return the window started by the event if it should be written, or null if it's a repeat
+     * counted in the window
+     */
+    public Window admit(LoggingEvent event, long now) {
+        final Key key = new Key(event);
+        Window window = windows.get(key);
+        if (window != null) {
+            if (now - window.start < windowMillis) {
+                window.repeats++;
+                window.lastTimestamp = event.getTimeStamp();
+                return null;
+            }
+            windows.remove(key);
+            if (window.repeats > 0) {
+                closed.add(window);
+            }
+        }
+        window = new Window(event, now);
+        if (windows.size() < maxWindows) {
+            windows.put(key, window);
+        }
+        return window;
+    }
+
+    /**
+     * Take the windows closed with repeats, including the expired windows.
+     *
+     * @param now current time in milliseconds
+     * @return closed windows
+     */
+    public List<Window> drain(long now) {
+        final Iterator<Window> iterator = windows.values().iterator();
+        while (iterator.hasNext()) {
+            final Window window = iterator.next();
+            if (now - window.start >= windowMillis) {
+                iterator.remove();
+                if (window.repeats > 0) {
+                    closed.add(window);
+                }
+            }
+        }
+        final List<Window> result = Lists.newArrayList(closed);
+        closed.clear();
+        return result;
+    }
+
+    /**
+     * Repeats of an event in a window.
+     */
+    public static class Window {
+
+        private final LoggingEvent firstEvent;
+
+        private final long start;
+
+        private long repeats = 0;
+
+        private long lastTimestamp;
+
+        private Document document = null;
+
+        private Window(LoggingEvent firstEvent, long start) {
+            this.firstEvent = firstEvent;
+            this.start = start;
+            this.lastTimestamp = firstEvent.getTimeStamp();
+        }
+
+        /**
+         * @return the first event which has been written
+         */
+        public LoggingEvent getFirstEvent() {
+            return firstEvent;
+        }
+
+        /**
+         * @return document of the first event, the summary is generated from it <i>(may be null)</i>
+         */
+        public Document getDocument() {
+            return document;
+        }
+
+        /**
+         * @param document document of the first event before it's changed by the appender, the
+         *                 thread, MDC and location of the first event are not available later
+         */
+        public void setDocument(Document document) {
+            this.document = document;
+        }
+
+        /**
+         * @return number of repeats not written
+         */
+        public long getRepeats() {
+            return repeats;
+        }
+
+        public long getFirstTimestamp() {
+            return firstEvent.getTimeStamp();
+        }
+
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+
+    }
+
+    private static class Key {
+
+        private final String loggerName;
+
+        private final int level;
+
+        private final String message;
+
+        private final String throwableClass;
+
+        private final int hash;
+
+        private Key(LoggingEvent event) {
+            loggerName = event.getLoggerName();
+            level = event.getLevel().toInt();
+            message = event.getRenderedMessage();
+            final ThrowableInformation throwable = event.getThrowableInformation();
+            throwableClass = throwable == null || throwable.getThrowable() == null
+                    ? null : throwable.getThrowable().getClass().getName();
+            hash = Objects.hash(loggerName, level, message, throwableClass);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && level == key.level && Objects.equals(loggerName, key.loggerName)
+                    && Objects.equals(message, key.message) && Objects.equals(throwableClass, key.throwableClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.log4mongo;
+
+/**
+ * Circuit breaker of writes to MongoDB, so logging doesn't block application threads until the
+ * server selection timeout for every event during an outage.
+ * <p>
+ * The circuit opens after a number of consecutive failures, requests are not allowed while it's
+ * open. A single probe is allowed after the backoff, the circuit closes if the probe succeeds,
+ * otherwise the backoff is doubled up to the max backoff.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private volatile State state = State.CLOSED;
+
+    private int failures = 0;
+
+    private long backoffMillis;
+
+    /**
+     * @param failureThreshold     consecutive failures to open the circuit
+     * @param initialBackoffMillis time to wait before the first probe
+     * @param maxBackoffMillis     max time to wait between probes
+     */
+    public CircuitBreaker(int failureThreshold, long initialBackoffMillis, long maxBackoffMillis) {
+        if (failureThreshold <= 0) {
+            throw new RuntimeException("failureThreshold must be positive");
+        }
+        if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new RuntimeException("Invalid backoff " + initialBackoffMillis + " to " + maxBackoffMillis);
+        }
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.backoffMillis = initialBackoffMillis;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if writing is allowed, it's lock free for the append path
+     */
+    public boolean allowRequest() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Record a successful write or probe, the circuit is closed.
+     */
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        backoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Record a failed write or probe.
+     *
+     * @return true if the circuit is opened by this failure, the caller should schedule a probe after
+     * {@link #getBackoffMillis()}
+     */
+    public synchronized boolean recordFailure() {
+        switch (state) {
+            case HALF_OPEN:
+                backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+                state = State.OPEN;
+                return false;
+            case CLOSED:
+                if (++failures >= failureThreshold) {
+                    backoffMillis = initialBackoffMillis;
+                    state = State.OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Start probing if the circuit is open.
+     *
+     * @return true if the caller should probe and record the result
+     */
+    public synchronized boolean tryProbe() {
+        if (state != State.OPEN) {
+            return false;
+        }
+        state = State.HALF_OPEN;
+        return true;
+    }
+
+    /**
+     * @return time to wait before the next probe
+     */
+    public synchronized long getBackoffMillis() {
+        return backoffMillis;
+    }
+
+}
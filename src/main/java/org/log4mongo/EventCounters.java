@@ -0,0 +1,141 @@
+package org.log4mongo;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free counters of log events per logger, level and minute, including the events which are
+ * not written (e.g. under the threshold or sampled out), so the volume of logs is still known.
+ */
+public class EventCounters {
+
+    private static final long MINUTE = 60000L;
+
+    private final ConcurrentHashMap<Key, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Count an event.
+     *
+     * @param loggerName name of the logger
+     * @param level      level of the event
+     * @param timestamp  time of the event in milliseconds
+     * @param suppressed true if the event is not written
+     */
+    public void record(String loggerName, String level, long timestamp, boolean suppressed) {
+        add(new Key(loggerName, level, timestamp - timestamp % MINUTE), 1, suppressed ? 1 : 0);
+    }
+
+    /**
+     * Count an event already counted as written but dropped afterwards, e.g. the buffer is full.
+     *
+     * @param loggerName name of the logger
+     * @param level      level of the event
+     * @param timestamp  time of the event in milliseconds
+     */
+    public void recordDropped(String loggerName, String level, long timestamp) {
+        add(new Key(loggerName, level, timestamp - timestamp % MINUTE), 0, 1);
+    }
+
+    /**
+     * Add counts back, e.g. after writing them failed.
+     *
+     * @param key        key of the counter
+     * @param count      count of all events
+     * @param suppressed count of events not written
+     */
+    public void add(Key key, long count, long suppressed) {
+        final Counter counter = counters.computeIfAbsent(key, k -> new Counter());
+        counter.count.add(count);
+        if (suppressed > 0) {
+            counter.suppressed.add(suppressed);
+        }
+    }
+
+    /**
+     * Take and reset all counts, counters of past minutes are removed.
+     *
+     * @param now current time in milliseconds
+     * @return counts of every key, the values are count of all events and count of events not written
+     */
+    public Map<Key, long[]> drain(long now) {
+        final long currentMinute = now - now % MINUTE;
+        final Map<Key, long[]> result = new HashMap<>();
+        final Iterator<Map.Entry<Key, Counter>> iterator = counters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, Counter> entry = iterator.next();
+            final Counter counter = entry.getValue();
+            long count = counter.count.sumThenReset();
+            long suppressed = counter.suppressed.sumThenReset();
+            if (entry.getKey().minute < currentMinute) {
+                iterator.remove();
+                // Take the counts added before removing
+                count += counter.count.sumThenReset();
+                suppressed += counter.suppressed.sumThenReset();
+            }
+            if (count > 0 || suppressed > 0) {
+                result.put(entry.getKey(), new long[]{count, suppressed});
+            }
+        }
+        return result;
+    }
+
+    private static class Counter {
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder suppressed = new LongAdder();
+
+    }
+
+    /**
+     * Logger name, level and minute of the counted events.
+     */
+    public static class Key {
+
+        private final String loggerName;
+
+        private final String level;
+
+        private final long minute;
+
+        public Key(String loggerName, String level, long minute) {
+            this.loggerName = loggerName;
+            this.level = level;
+            this.minute = minute;
+        }
+
+        public String getLoggerName() {
+            return loggerName;
+        }
+
+        public String getLevel() {
+            return level;
+        }
+
+        /**
+         * @return start of the minute in milliseconds
+         */
+        public long getMinute() {
+            return minute;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return minute == key.minute && Objects.equals(loggerName, key.loggerName) && Objects.equals(level, key.level);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(loggerName, level, minute);
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.Level;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Probabilistic sampling and token bucket rate limiting of log events per logger name prefix and
+ * level, so a single noisy logger can't saturate MongoDB.
+ * <p>
+ * Rules are split by ";" in format of <code>prefix[@LEVEL]=rate[,maxPerSecond]</code>, e.g.
+ * <code>com.example.noisy@DEBUG=0.01;com.example=1,100;*@TRACE=0</code>. The prefix matches the
+ * logger with the same name and its descendants, <code>*</code> matches all loggers. The rule of the
+ * longest prefix is used, a rule of the event's level is preferred to a rule of all levels with the
+ * same prefix.
+ * <p>
+ * Every sampled event has a weight, which is the number of events it represents including the
+ * events dropped since the last sampled event of the rule, so counts can be reconstructed by
+ * summing the weights.
+ */
+public class EventSampler {
+
+    private static final Rule NO_RULE = new Rule("", -1, 1, 0);
+
+    private final List<Rule> rules = Lists.newArrayList();
+
+    /**
+     * Resolved rules of loggers, indexed by the level index, the last one for custom levels
+     */
+    private final ConcurrentHashMap<String, Rule[]> loggerRules = new ConcurrentHashMap<>();
+
+    /**
+     * @param setting sampling rules
+     */
+    public EventSampler(String setting) {
+        for (String ruleSetting : setting.split(";")) {
+            if (ruleSetting.trim().isEmpty()) {
+                continue;
+            }
+            final String[] keyValue = ruleSetting.split("=");
+            if (keyValue.length != 2) {
+                throw new RuntimeException("Invalid sampling rule " + ruleSetting + ", should be prefix[@LEVEL]=rate[,maxPerSecond]");
+            }
+            final String[] prefixLevel = keyValue[0].trim().split("@");
+            final String prefix = prefixLevel[0].trim().equals("*") ? "" : prefixLevel[0].trim();
+            int levelIndex = -1;
+            if (prefixLevel.length == 2) {
+                levelIndex = MongoDbAppender.getLevelIndex(Level.toLevel(prefixLevel[1].trim(), Level.OFF));
+                if (levelIndex < 0) {
+                    throw new RuntimeException("Invalid level in sampling rule " + ruleSetting);
+                }
+            } else if (prefixLevel.length != 1) {
+                throw new RuntimeException("Invalid sampling rule " + ruleSetting);
+            }
+            final String[] limits = keyValue[1].split(",");
+            final double rate;
+            final double maxPerSecond;
+            try {
+                rate = Double.parseDouble(limits[0].trim());
+                maxPerSecond = limits.length > 1 ? Double.parseDouble(limits[1].trim()) : 0;
+            } catch (NumberFormatException ex) {
+                throw new RuntimeException("Invalid sampling rule " + ruleSetting, ex);
+            }
+            if (rate < 0 || rate > 1 || maxPerSecond < 0 || limits.length > 2) {
+                throw new RuntimeException("Invalid sampling rule " + ruleSetting
+                        + ", rate should be in [0, 1] and maxPerSecond should not be negative");
+            }
+            rules.add(new Rule(prefix, levelIndex, rate, maxPerSecond));
+        }
+    }
+
+    /**
+     * Decide whether an event is written.
+     *
+     * @param loggerName name of the logger
+     * @param level      level of the event
+     * @param now        current time in milliseconds
+     * @return weight of the event if it's written, or 0 if it's dropped
+     */
+    public double sample(String loggerName, Level level, long now) {
+        final int levelIndex = MongoDbAppender.getLevelIndex(level);
+        final Rule[] resolved = loggerRules.computeIfAbsent(loggerName, name -> new Rule[7]);
+        final int slot = levelIndex < 0 ? 6 : levelIndex;
+        Rule rule = resolved[slot];
+        if (rule == null) {
+            rule = resolve(loggerName, levelIndex);
+            resolved[slot] = rule;
+        }
+        return rule == NO_RULE ? 1 : rule.sample(now);
+    }
+
+    private Rule resolve(String loggerName, int levelIndex) {
+        Rule best = NO_RULE;
+        for (Rule rule : rules) {
+            if (rule.levelIndex >= 0 && rule.levelIndex != levelIndex) {
+                continue;
+            }
+            if (!rule.prefix.isEmpty() && !loggerName.equals(rule.prefix) && !loggerName.startsWith(rule.prefix + ".")) {
+                continue;
+            }
+            if (best == NO_RULE || rule.prefix.length() > best.prefix.length()
+                    || (rule.prefix.length() == best.prefix.length() && rule.levelIndex >= 0 && best.levelIndex < 0)) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+
+    private static class Rule {
+
+        private final String prefix;
+
+        private final int levelIndex;
+
+        private final double rate;
+
+        private final double maxPerSecond;
+
+        private double tokens;
+
+        private long lastRefill = -1;
+
+        /**
+         * Weight of the events dropped since the last sampled one
+         */
+        private double droppedWeight = 0;
+
+        private Rule(String prefix, int levelIndex, double rate, double maxPerSecond) {
+            this.prefix = prefix;
+            this.levelIndex = levelIndex;
+            this.rate = rate;
+            this.maxPerSecond = maxPerSecond;
+            // Allow a burst of one second, at least one event
+            this.tokens = Math.max(1, maxPerSecond);
+        }
+
+        private synchronized double sample(long now) {
+            if (rate <= 0) {
+                return 0;
+            }
+            final double weight = 1 / rate;
+            if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+                // Represented by the weight of the events sampled
+                return 0;
+            }
+            if (maxPerSecond > 0) {
+                if (lastRefill >= 0) {
+                    tokens = Math.min(Math.max(1, maxPerSecond), tokens + Math.max(0, now - lastRefill) * maxPerSecond / 1000);
+                }
+                lastRefill = now;
+                if (tokens < 1) {
+                    droppedWeight += weight;
+                    return 0;
+                }
+                tokens--;
+            }
+            final double result = weight + droppedWeight;
+            droppedWeight = 0;
+            return result;
+        }
+
+    }
+
+}
@@ -4,6 +4,7 @@ import org.apache.log4j.spi.LoggingEvent;
 import org.bson.Document;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,8 +25,8 @@ public class ExtendedMongoDbAppender extends MongoDbAppender {
     private Map<String, String> rootProperties = new LinkedHashMap<>();
 
     @Override
-    protected String getCollectionName() {
-        String collectionNameGenerated = super.getCollectionName();
+    protected String getCollectionNameTemplate() {
+        String collectionNameGenerated = super.getCollectionNameTemplate();
         for (Map.Entry<String, String> kv : rootProperties.entrySet()) {
             collectionNameGenerated = collectionNameGenerated.replaceAll(
                     String.format(
@@ -86,4 +87,14 @@ public class ExtendedMongoDbAppender extends MongoDbAppender {
         }
     }
 
+    @Override
+    protected void append(List<Document> documents, List<LoggingEvent> loggingEvents) {
+        if (this.isInitialized() && constants != null) {
+            for (Document document : documents) {
+                document.putAll(constants);
+            }
+        }
+        super.append(documents, loggingEvents);
+    }
+
 }
@@ -0,0 +1,185 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keep recent low level events in memory per scope, which is the value of a MDC key such as a
+ * trace ID, or the thread if the key is not in MDC. The events of a scope are taken to be written
+ * when an error occurs in the scope, and discarded after the scope is idle.
+ * <p>
+ * Every scope is a ring of the latest events, the oldest scope is evicted if there are too many
+ * events in all scopes. It's not thread safe, it's used under the lock of the appender.
+ */
+public class FlightRecorder {
+
+    private final String traceKey;
+
+    private final int capacity;
+
+    private final int maxEvents;
+
+    private final long idleMillis;
+
+    private final Consumer<LoggingEvent> discarded;
+
+    /**
+     * Scopes in order of the last recorded event
+     */
+    private final LinkedHashMap<String, Scope> scopes = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int size = 0;
+
+    /**
+     * @param traceKey   MDC key of the scope <i>(may be null to use the thread)</i>
+     * @param capacity   max number of events per scope
+     * @param maxEvents  max number of events in all scopes
+     * @param idleMillis time after the last event of a scope to discard it
+     * @param discarded  called with every event discarded
+     */
+    public FlightRecorder(String traceKey, int capacity, int maxEvents, long idleMillis, Consumer<LoggingEvent> discarded) {
+        if (capacity <= 0 || maxEvents < capacity || idleMillis <= 0) {
+            throw new RuntimeException("capacity and idleMillis must be positive, maxEvents must not be less than capacity");
+        }
+        this.traceKey = traceKey;
+        this.capacity = capacity;
+        this.maxEvents = maxEvents;
+        this.idleMillis = idleMillis;
+        this.discarded = discarded;
+    }
+
+    /**
+     * Keep an event in its scope instead of writing it.
+     *
+     * @param event           the event
+     * @param now             current time in milliseconds
+     * @param captureLocation true to capture the location from the stack of the calling thread, which
+     *                        is expensive, the location is not available otherwise
+     */
+    public void record(LoggingEvent event, long now, boolean captureLocation) {
+        // Captured now, they are not available on the thread writing the event later
+        event.getThreadName();
+        event.getNDC();
+        event.getMDCCopy();
+        if (captureLocation) {
+            event.getRenderedMessage();
+            event.getLocationInformation();
+        } else {
+            // Otherwise the location would be computed from the stack of the error writing the event
+            event = new LoggingEvent(event.getFQNOfLoggerClass(), event.getLogger(), event.getTimeStamp(),
+                    event.getLevel(), event.getRenderedMessage(), event.getThreadName(),
+                    event.getThrowableInformation(), event.getNDC(), LocationInfo.NA_LOCATION_INFO,
+                    event.getProperties());
+        }
+
+        final String key = scopeOf(event);
+        Scope scope = scopes.get(key);
+        if (scope == null) {
+            scope = new Scope();
+            scopes.put(key, scope);
+        }
+        scope.lastEvent = now;
+        if (scope.events.size() >= capacity) {
+            discarded.accept(scope.events.pollFirst());
+            size--;
+        }
+        scope.events.addLast(event);
+        size++;
+        while (size > maxEvents) {
+            final Iterator<Scope> eldest = scopes.values().iterator();
+            discard(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Take the events recorded in the scope of an event, e.g. an error.
+     *
+     * @param event the event
+     * @return events of the scope in order
+     */
+    public List<LoggingEvent> take(LoggingEvent event) {
+        final Scope scope = scopes.remove(scopeOf(event));
+        if (scope == null) {
+            return Collections.emptyList();
+        }
+        size -= scope.events.size();
+        return Lists.newArrayList(scope.events);
+    }
+
+    /**
+     * Discard the scopes idle for longer than the idle time.
+     *
+     * @param now current time in milliseconds
+     */
+    public void expire(long now) {
+        final Iterator<Scope> iterator = scopes.values().iterator();
+        while (iterator.hasNext()) {
+            final Scope scope = iterator.next();
+            if (now - scope.lastEvent < idleMillis) {
+                // The rest are more recent
+                break;
+            }
+            discard(scope);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Discard all scopes.
+     */
+    public void clear() {
+        for (Scope scope : scopes.values()) {
+            discard(scope);
+        }
+        scopes.clear();
+    }
+
+    /**
+     * @return number of scopes with events
+     */
+    public int getScopeCount() {
+        return scopes.size();
+    }
+
+    /**
+     * @return number of events in all scopes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    private void discard(Scope scope) {
+        size -= scope.events.size();
+        for (LoggingEvent event : scope.events) {
+            discarded.accept(event);
+        }
+    }
+
+    private String scopeOf(LoggingEvent event) {
+        if (traceKey != null) {
+            final Object traceId = event.getMDC(traceKey);
+            if (traceId != null) {
+                return "trace:" + traceId;
+            }
+        }
+        return "thread:" + event.getThreadName();
+    }
+
+    private static class Scope {
+
+        private final ArrayDeque<LoggingEvent> events = new ArrayDeque<>();
+
+        private long lastEvent;
+
+    }
+
+}
@@ -0,0 +1,139 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.helpers.LogLog;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import java.io.Closeable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+/**
+ * Monitor of heap pressure by the usage of the tenured memory pools after GC, so the appender can
+ * switch to a lean mode which allocates less while the JVM is close to running out of memory.
+ * <p>
+ * The usage is checked after every GC if the garbage collectors send notifications, and whenever
+ * {@link #check()} is called. Lean mode is entered when the usage reaches the threshold, and left
+ * after the usage drops below the threshold by a margin, so it doesn't flap.
+ */
+public class HeapPressureMonitor implements Closeable {
+
+    private static final double HYSTERESIS = 0.1;
+
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+    private final double threshold;
+
+    private final List<MemoryPoolMXBean> pools = Lists.newArrayList();
+
+    private final List<NotificationEmitter> emitters = Lists.newArrayList();
+
+    private final NotificationListener listener = (notification, handback) -> check();
+
+    private double usage = 0;
+
+    private volatile boolean lean = false;
+
+    /**
+     * @param threshold usage of the tenured pools after GC to enter lean mode, in (0, 1)
+     */
+    public HeapPressureMonitor(double threshold) {
+        if (threshold <= 0 || threshold >= 1) {
+            throw new RuntimeException("Heap pressure threshold " + threshold + " should be in (0, 1)");
+        }
+        this.threshold = threshold;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // Only the tenured pool supports both thresholds, eden and survivor don't support usage threshold
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported()) {
+                pools.add(pool);
+            }
+        }
+        if (pools.isEmpty()) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                    pools.add(pool);
+                }
+            }
+        }
+        final NotificationFilter filter = notification -> GC_NOTIFICATION.equals(notification.getType());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                final NotificationEmitter emitter = (NotificationEmitter) collector;
+                emitter.addNotificationListener(listener, filter, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    /**
+     * Check the usage of the tenured pools after the last GC.
+     *
+     * @return true if in lean mode
+     */
+    public boolean check() {
+        double ratio = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            ratio = Math.max(ratio, usageRatio(pool.getCollectionUsage()));
+        }
+        return update(ratio);
+    }
+
+    synchronized boolean update(double ratio) {
+        usage = ratio;
+        if (!lean && ratio >= threshold) {
+            lean = true;
+            LogLog.warn("Heap usage after GC " + ratio + " reached " + threshold + ", logging switches to lean mode");
+        } else if (lean && ratio < threshold - HYSTERESIS) {
+            lean = false;
+            LogLog.warn("Heap usage after GC dropped to " + ratio + ", logging leaves lean mode");
+        }
+        return lean;
+    }
+
+    /**
+     * @param usage usage of a memory pool <i>(may be null)</i>
+     * @return used memory relative to the max, or the committed if the max is undefined
+     */
+    static double usageRatio(MemoryUsage usage) {
+        if (usage == null) {
+            return 0;
+        }
+        final long max = usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+        return max > 0 ? (double) usage.getUsed() / max : 0;
+    }
+
+    /**
+     * @return true if the heap is under pressure, it's lock free for the append path
+     */
+    public boolean isLean() {
+        return lean;
+    }
+
+    /**
+     * @return usage of the tenured pools after GC of the last check
+     */
+    public synchronized double getUsage() {
+        return usage;
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // Already removed
+            }
+        }
+        emitters.clear();
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Definition of an index created on log collections, parsed from indexSetting of MongoDbAppender.
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ * <li>Simple format: single field indexes as <code>field:type</code> split by ",", e.g.
+ * <code>timestamp:1,level:hashed</code></li>
+ * <li>JSON format: an array of index documents, every document contains <code>key</code> and the
+ * optional <code>name</code>, <code>sparse</code>, <code>partialFilterExpression</code> and
+ * <code>collation</code>, e.g.
+ * <code>[{"key":{"level":1,"timestamp":-1},"partialFilterExpression":{"level":{"$in":["ERROR","FATAL"]}}},
+ * {"key":{"properties.$**":1}}]</code></li>
+ * </ul>
+ */
+public class IndexDefinition {
+
+    private static final Set<String> INDEX_TYPES = Sets.newHashSet("hashed", "text", "2d", "2dsphere");
+
+    /**
+     * Index types never supported by time series collections
+     */
+    private static final Set<String> TIME_SERIES_UNSUPPORTED_TYPES = Sets.newHashSet("hashed", "text", "2d");
+
+    private static final Set<String> OPTION_NAMES = Sets.newHashSet("key", "name", "sparse",
+            "partialFilterExpression", "collation");
+
+    private final Document keys;
+
+    private final IndexOptions options;
+
+    public IndexDefinition(Document keys, IndexOptions options) {
+        this.keys = keys;
+        this.options = options;
+    }
+
+    /**
+     * @return keys of the index
+     */
+    public Document getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return options used while creating the index
+     */
+    public IndexOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * @return false if the index can't be created on time series collections, e.g. hashed, text and
+     * wildcard indexes
+     */
+    public boolean isSupportedByTimeSeries() {
+        for (Map.Entry<String, Object> key : keys.entrySet()) {
+            if (key.getKey().endsWith("$**") || TIME_SERIES_UNSUPPORTED_TYPES.contains(key.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return keys.toJson();
+    }
+
+    /**
+     * Parse and validate index setting
+     *
+     * @param indexSetting index setting in simple or JSON format <i>(may be null or empty for no index)</i>
+     * @return index definitions
+     */
+    public static List<IndexDefinition> parse(String indexSetting) {
+        final List<IndexDefinition> result = Lists.newArrayList();
+        if (indexSetting == null || indexSetting.trim().isEmpty()) {
+            return result;
+        }
+        final String setting = indexSetting.trim();
+        if (setting.startsWith("[")) {
+            final Object indexes;
+            try {
+                indexes = Document.parse("{\"indexes\":" + setting + "}").get("indexes");
+            } catch (Exception ex) {
+                throw new RuntimeException("Invalid JSON in index setting " + setting, ex);
+            }
+            for (Object index : (List<?>) indexes) {
+                if (!(index instanceof Document)) {
+                    throw new RuntimeException("Index definition should be a document: " + index);
+                }
+                result.add(parseDocument((Document) index));
+            }
+        } else {
+            for (String indexSet : setting.split(",")) {
+                result.add(new IndexDefinition(parseKeys(indexSet), new IndexOptions()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parse keys in format of <code>field:type</code> split by ",", the type could be an integer or
+     * a string like hashed.
+     *
+     * @param keySetting keys setting
+     * @return keys document in order
+     */
+    public static Document parseKeys(String keySetting) {
+        final Document keys = new Document();
+        for (String keySet : keySetting.split(",")) {
+            final String[] keySetDetail = keySet.trim().split(":");
+            if (keySetDetail.length != 2 || keySetDetail[0].isEmpty()) {
+                throw new RuntimeException("Invalid key setting " + keySet + ", should be field:type");
+            }
+            Object type;
+            try {
+                type = Integer.parseInt(keySetDetail[1].trim());
+            } catch (NumberFormatException ex) {
+                type = keySetDetail[1].trim();
+            }
+            keys.append(keySetDetail[0].trim(), type);
+        }
+        validateKeys(keys);
+        return keys;
+    }
+
+    private static IndexDefinition parseDocument(Document index) {
+        for (String option : index.keySet()) {
+            if (!OPTION_NAMES.contains(option)) {
+                throw new RuntimeException("Unsupported index option " + option + " in " + index.toJson());
+            }
+        }
+        final Object keys = index.get("key");
+        if (!(keys instanceof Document)) {
+            throw new RuntimeException("Index key should be a document: " + index.toJson());
+        }
+        validateKeys((Document) keys);
+
+        final IndexOptions options = new IndexOptions();
+        if (index.containsKey("name")) {
+            options.name(index.getString("name"));
+        }
+        if (index.containsKey("sparse")) {
+            options.sparse(index.getBoolean("sparse"));
+        }
+        if (index.containsKey("partialFilterExpression")) {
+            options.partialFilterExpression(index.get("partialFilterExpression", Document.class));
+        }
+        if (index.containsKey("collation")) {
+            options.collation(parseCollation(index.get("collation", Document.class)));
+        }
+        return new IndexDefinition((Document) keys, options);
+    }
+
+    private static void validateKeys(Document keys) {
+        if (keys.isEmpty()) {
+            throw new RuntimeException("Index must contain at least one key");
+        }
+        for (Map.Entry<String, Object> key : keys.entrySet()) {
+            final Object type = key.getValue();
+            if (type instanceof Number) {
+                final int direction = ((Number) type).intValue();
+                if (direction != 1 && direction != -1) {
+                    throw new RuntimeException("Invalid index direction " + type + " of key " + key.getKey());
+                }
+            } else if (!(type instanceof String) || !INDEX_TYPES.contains(type)) {
+                throw new RuntimeException("Invalid index type " + type + " of key " + key.getKey());
+            }
+            if (key.getKey().endsWith("$**") && keys.size() > 1) {
+                throw new RuntimeException("Wildcard index " + key.getKey() + " can't be compound");
+            }
+        }
+    }
+
+    private static Collation parseCollation(Document collation) {
+        if (collation == null || !collation.containsKey("locale")) {
+            throw new RuntimeException("Collation must contain locale");
+        }
+        final Collation.Builder builder = Collation.builder().locale(collation.getString("locale"));
+        if (collation.containsKey("strength")) {
+            builder.collationStrength(CollationStrength.fromInt(collation.getInteger("strength")));
+        }
+        if (collation.containsKey("caseLevel")) {
+            builder.caseLevel(collation.getBoolean("caseLevel"));
+        }
+        if (collation.containsKey("numericOrdering")) {
+            builder.numericOrdering(collation.getBoolean("numericOrdering"));
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.log4mongo;
+
+import org.apache.log4j.Level;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Adaptive load shedding by the pressure of the appender, which is the larger of the pending queue
+ * depth relative to its capacity and the recent ack latency of MongoDB relative to the latency limit.
+ * <p>
+ * The shedding level rises as the pressure rises, and falls after the pressure drops below the
+ * threshold of the level by a margin, so it doesn't flap:
+ * <ol>
+ * <li>TRACE is dropped</li>
+ * <li>DEBUG is dropped</li>
+ * <li>INFO is sampled at 25%</li>
+ * <li>INFO is dropped and WARN is sampled at 50%</li>
+ * </ol>
+ * ERROR and FATAL are never dropped.
+ */
+public class LoadShedder {
+
+    private static final double[] THRESHOLDS = {0.5, 0.7, 0.85, 1.0};
+
+    private static final double HYSTERESIS = 0.15;
+
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final int queueCapacity;
+
+    private final double latencyLimitMillis;
+
+    private double latencyMillis = 0;
+
+    private boolean latencyRecorded = false;
+
+    private double pressure = 0;
+
+    private volatile int sheddingLevel = 0;
+
+    /**
+     * @param queueCapacity      capacity of the pending queues
+     * @param latencyLimitMillis ack latency which means full pressure
+     */
+    public LoadShedder(int queueCapacity, long latencyLimitMillis) {
+        if (queueCapacity <= 0 || latencyLimitMillis <= 0) {
+            throw new RuntimeException("queueCapacity and latencyLimitMillis must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+        this.latencyLimitMillis = latencyLimitMillis;
+    }
+
+    /**
+     * Record the latency of a write, averaged by EWMA.
+     *
+     * @param millis time used by the write in milliseconds
+     */
+    public synchronized void recordLatency(double millis) {
+        latencyMillis += LATENCY_WEIGHT * (millis - latencyMillis);
+        latencyRecorded = true;
+    }
+
+    /**
+     * Update the shedding level by the current pressure.
+     *
+     * @param queueDepth number of documents pending
+     * @return the new shedding level
+     */
+    public synchronized int update(int queueDepth) {
+        if (!latencyRecorded) {
+            // Nothing written, let the latency decay so shedding can be relaxed
+            latencyMillis *= 1 - LATENCY_WEIGHT;
+        }
+        latencyRecorded = false;
+        pressure = Math.max((double) queueDepth / queueCapacity, latencyMillis / latencyLimitMillis);
+        int level = sheddingLevel;
+        while (level < THRESHOLDS.length && pressure >= THRESHOLDS[level]) {
+            level++;
+        }
+        while (level > 0 && pressure < THRESHOLDS[level - 1] - HYSTERESIS) {
+            level--;
+        }
+        sheddingLevel = level;
+        return level;
+    }
+
+    /**
+     * @param level level of the event
+     * @return true if the event should be dropped, it's lock free for the append path
+     */
+    public boolean shouldShed(Level level) {
+        final int shedding = sheddingLevel;
+        if (shedding == 0) {
+            return false;
+        }
+        final int levelInt = level.toInt();
+        if (levelInt <= Level.TRACE_INT) {
+            return true;
+        }
+        if (levelInt <= Level.DEBUG_INT) {
+            return shedding >= 2;
+        }
+        if (levelInt <= Level.INFO_INT) {
+            return shedding >= 4 || (shedding == 3 && ThreadLocalRandom.current().nextDouble() >= 0.25);
+        }
+        if (levelInt <= Level.WARN_INT) {
+            return shedding >= 4 && ThreadLocalRandom.current().nextDouble() >= 0.5;
+        }
+        return false;
+    }
+
+    public int getSheddingLevel() {
+        return sheddingLevel;
+    }
+
+    public synchronized double getPressure() {
+        return pressure;
+    }
+
+    public synchronized double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+}
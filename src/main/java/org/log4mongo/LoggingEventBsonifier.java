@@ -33,4 +33,14 @@ public interface LoggingEventBsonifier {
      */
     Document bsonify(LoggingEvent loggingEvent);
 
+    /**
+     * Convert LoggingEvent to Document, leaving out costly details in lean mode
+     * @param loggingEvent logging information & data
+     * @param lean true while the heap is under pressure
+     * @return the document generated
+     */
+    default Document bsonify(LoggingEvent loggingEvent, boolean lean) {
+        return bsonify(loggingEvent);
+    }
+
 }
@@ -71,6 +71,11 @@ public class LoggingEventBsonifierImpl implements LoggingEventBsonifier {
 
     private static final String KEY_STACK_TRACE = "stackTrace";
 
+    private static final String KEY_OMITTED_FRAMES = "omittedFrames";
+
+    // Frames kept per throwable in lean mode
+    private static final int LEAN_STACK_TRACE_DEPTH = 8;
+
     // Host and Process Info
     private static final String KEY_HOST = "host";
 
@@ -109,6 +114,19 @@ public class LoggingEventBsonifierImpl implements LoggingEventBsonifier {
      * @return The BSONified equivalent of the LoggingEvent object <i>(may be null)</i>.
      */
     public Document bsonify(final LoggingEvent loggingEvent) {
+        return bsonify(loggingEvent, false);
+    }
+
+    /**
+     * BSONifies a single Log4J LoggingEvent object, without location info and with truncated stack
+     * traces in lean mode.
+     *
+     * @param loggingEvent The LoggingEvent object to BSONify <i>(may be null)</i>.
+     * @param lean         true to leave out costly details while the heap is under pressure
+     * @return The BSONified equivalent of the LoggingEvent object <i>(may be null)</i>.
+     */
+    @Override
+    public Document bsonify(final LoggingEvent loggingEvent, boolean lean) {
         Document result = null;
 
         if (loggingEvent != null) {
@@ -131,8 +149,13 @@ public class LoggingEventBsonifierImpl implements LoggingEventBsonifier {
             nullSafePut(result, KEY_LOGGER_NAME, bsonifyClassName(loggingEvent.getLoggerName()));
 
             addMDCInformation(result, loggingEvent.getProperties());
-            addLocationInformation(result, loggingEvent.getLocationInformation());
-            addThrowableInformation(result, loggingEvent.getThrowableInformation());
+            if (lean) {
+                // Location info is computed from a new Throwable, skip it entirely
+                addThrowableInformation(result, loggingEvent.getThrowableInformation(), LEAN_STACK_TRACE_DEPTH);
+            } else {
+                addLocationInformation(result, loggingEvent.getLocationInformation());
+                addThrowableInformation(result, loggingEvent.getThrowableInformation());
+            }
             addHostnameInformation(result);
         }
 
@@ -182,12 +205,24 @@ public class LoggingEventBsonifierImpl implements LoggingEventBsonifier {
      * @param throwableInfo The ThrowableInformation object to add to the BSON object <i>(may be null)</i>.
      */
     protected void addThrowableInformation(Document bson, final ThrowableInformation throwableInfo) {
+        addThrowableInformation(bson, throwableInfo, -1);
+    }
+
+    /**
+     * Adds the ThrowableInformation object to an existing BSON object, with stack traces truncated.
+     *
+     * @param bson          The BSON object to add the throwable info to <i>(must not be null)</i>.
+     * @param throwableInfo The ThrowableInformation object to add to the BSON object <i>(may be null)</i>.
+     * @param maxFrames     Max number of frames per throwable, or negative for all frames.
+     */
+    protected void addThrowableInformation(Document bson, final ThrowableInformation throwableInfo, int maxFrames) {
         if (throwableInfo != null) {
             Throwable currentThrowable = throwableInfo.getThrowable();
             List<Document> throwables = Lists.newArrayList();
 
             while (currentThrowable != null) {
-                Document throwableBson = bsonifyThrowable(currentThrowable);
+                Document throwableBson = maxFrames < 0 ? bsonifyThrowable(currentThrowable)
+                        : bsonifyThrowable(currentThrowable, maxFrames);
                 if (throwableBson != null) {
                     throwables.add(throwableBson);
                 }
@@ -226,6 +261,30 @@ public class LoggingEventBsonifierImpl implements LoggingEventBsonifier {
         return (result);
     }
 
+    /**
+     * BSONifies the given Throwable with the top frames of its stack trace, the number of frames
+     * left out is in omittedFrames.
+     *
+     * @param throwable The throwable object to BSONify <i>(may be null)</i>.
+     * @param maxFrames Max number of frames.
+     * @return The BSONified equivalent of the Throwable object <i>(may be null)</i>.
+     */
+    protected Document bsonifyThrowable(final Throwable throwable, int maxFrames) {
+        Document result = null;
+
+        if (throwable != null) {
+            result = new Document();
+            final StackTraceElement[] stackTrace = throwable.getStackTrace();
+            nullSafePut(result, KEY_EXCEPTION_MESSAGE, throwable.getMessage());
+            nullSafePut(result, KEY_STACK_TRACE, bsonifyStackTrace(stackTrace, maxFrames));
+            if (stackTrace != null && stackTrace.length > maxFrames) {
+                result.put(KEY_OMITTED_FRAMES, stackTrace.length - maxFrames);
+            }
+        }
+
+        return (result);
+    }
+
     /**
      * BSONifies the given stack trace.
      *
@@ -233,12 +292,23 @@ public class LoggingEventBsonifierImpl implements LoggingEventBsonifier {
      * @return The BSONified equivalent of the stack trace object <i>(may be null)</i>.
      */
     protected List<Document> bsonifyStackTrace(final StackTraceElement[] stackTrace) {
+        return bsonifyStackTrace(stackTrace, Integer.MAX_VALUE);
+    }
+
+    /**
+     * BSONifies the top frames of the given stack trace.
+     *
+     * @param stackTrace The stack trace object to BSONify <i>(may be null)</i>.
+     * @param maxFrames  Max number of frames.
+     * @return The BSONified equivalent of the stack trace object <i>(may be null)</i>.
+     */
+    protected List<Document> bsonifyStackTrace(final StackTraceElement[] stackTrace, int maxFrames) {
         List<Document> result = null;
 
-        if (stackTrace != null && stackTrace.length > 0) {
+        if (stackTrace != null && stackTrace.length > 0 && maxFrames > 0) {
             result = Lists.newArrayList();
-            for (StackTraceElement element : stackTrace) {
-                Document bson = bsonifyStackTraceElement(element);
+            for (int i = 0; i < stackTrace.length && i < maxFrames; i++) {
+                Document bson = bsonifyStackTraceElement(stackTrace[i]);
                 if (bson != null) {
                     result.add(bson);
                 }
@@ -0,0 +1,74 @@
+package org.log4mongo;
+
+import com.mongodb.MongoClient;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Process wide registry of MongoClient shared by appenders with the same connection configuration,
+ * so every distinct configuration has only one connection pool and monitor threads. Clients are
+ * closed after the last appender using it released it.
+ */
+public final class MongoClientRegistry {
+
+    private static final Map<Object, SharedClient> clients = new HashMap<>();
+
+    private MongoClientRegistry() {
+    }
+
+    /**
+     * Get the client of the configuration, it's created by the factory if not existed.
+     *
+     * @param key     key of the connection configuration, must implement equals and hashCode
+     * @param factory creates client for the configuration
+     * @return shared client, should be released by {@link #release(MongoClient)}
+     */
+    public static synchronized MongoClient acquire(Object key, Supplier<MongoClient> factory) {
+        SharedClient shared = clients.get(key);
+        if (shared == null) {
+            shared = new SharedClient(factory.get());
+            clients.put(key, shared);
+        }
+        shared.references++;
+        return shared.client;
+    }
+
+    /**
+     * Release the client, it's closed if no appender uses it anymore. Clients not in the registry
+     * are ignored, they are owned by someone else.
+     *
+     * @param client client acquired by {@link #acquire(Object, Supplier)}
+     * @return true if the client is closed
+     */
+    public static synchronized boolean release(MongoClient client) {
+        final Iterator<SharedClient> iterator = clients.values().iterator();
+        while (iterator.hasNext()) {
+            final SharedClient shared = iterator.next();
+            if (shared.client == client) {
+                if (--shared.references > 0) {
+                    return false;
+                }
+                iterator.remove();
+                client.close();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class SharedClient {
+
+        private final MongoClient client;
+
+        private int references = 0;
+
+        private SharedClient(MongoClient client) {
+            this.client = client;
+        }
+
+    }
+
+}
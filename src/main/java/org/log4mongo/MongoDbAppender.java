@@ -19,18 +19,44 @@ package org.log4mongo;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.*;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
+import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.ErrorCode;
 import org.apache.log4j.spi.LoggingEvent;
+import org.bson.BSONException;
 import org.bson.Document;
-import java.text.SimpleDateFormat;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.types.ObjectId;
+import java.io.File;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Log4J Appender that writes log events into a MongoDB document oriented database. Log events are
@@ -60,8 +86,51 @@ public class MongoDbAppender extends BsonAppender {
 
     private final static String DEFAULT_INDEX_SETTINGS = "timestamp:1,level:hashed";
 
+    private final static String COLLECTION_TYPE_NORMAL = "normal";
+
+    private final static String COLLECTION_TYPE_TIME_SERIES = "timeseries";
+
+    private final static String COLLECTION_TYPE_CAPPED = "capped";
+
+    private final static String RETENTION_MODE_DOCUMENT = "document";
+
+    private final static String RETENTION_MODE_PARTIAL_INDEX = "partialindex";
+
+    private final static String RETENTION_MODE_DROP_COLLECTION = "dropcollection";
+
+    private final static String LEVEL_TIMEOUT_INDEX_PREFIX = "log_ttl_";
+
+    private final static int MAX_DEAD_LETTER_JSON_LENGTH = 64 * 1024;
+
+    /**
+     * Error code of creating a collection which already exists
+     */
+    private final static int NAMESPACE_EXISTS = 48;
+
     private WriteConcern concern;
 
+    private String levelWriteConcern = null;
+
+    /**
+     * Write concerns of levels in the order of {@link #LEVELS}, null to use the global one
+     */
+    private final WriteConcern[] levelConcerns = new WriteConcern[6];
+
+    private boolean hasLevelConcerns = false;
+
+    private String asyncLevels = null;
+
+    private final boolean[] asyncLevelFlags = new boolean[6];
+
+    private int asyncQueueSize = 10000;
+
+    private BlockingQueue<Document> asyncQueue = null;
+
+    /**
+     * Thread writing the logs of async levels, so batches never wait for other background jobs
+     */
+    private ExecutorService asyncWriter = null;
+
     private String hostname = DEFAULT_MONGO_DB_HOSTNAME;
 
     private String port = DEFAULT_MONGO_DB_PORT;
@@ -70,6 +139,8 @@ public class MongoDbAppender extends BsonAppender {
 
     private String collectionName = DEFAULT_MONGO_DB_COLLECTION_NAME;
 
+    private String connectionString = null;
+
     private String userName = null;
 
     private String password = null;
@@ -90,348 +161,2120 @@ public class MongoDbAppender extends BsonAppender {
         return indexSetting;
     }
 
+    /**
+     * @param indexSetting Indexes created on new collections, see {@link IndexDefinition} for format.
+     */
     public void setIndexSetting(String indexSetting) {
         this.indexSetting = indexSetting;
     }
 
     private String indexSetting = DEFAULT_INDEX_SETTINGS;
 
+    private List<IndexDefinition> indexDefinitions = Lists.newArrayList();
+
+    private boolean deferIndexBuild = false;
+
     private String timeoutMills = MAX_TTL_MILLS_SETTING;
 
-    private MongoClient mongo = null;
+    private String collectionType = COLLECTION_TYPE_NORMAL;
 
-    private MongoCollection<Document> collection = null;
+    private String retentionMode = RETENTION_MODE_DOCUMENT;
 
-    private boolean initialized = false;
+    private final List<PartitionRetentionManager> retentionManagers = Lists.newArrayList();
 
-    private String lastCollectionName = "";
+    private boolean compactHourlyCollections = false;
 
-    private final SimpleDateFormat formatHourInfo = new SimpleDateFormat("yyyyMMdd_HH");
-    private final SimpleDateFormat formatDayInfo = new SimpleDateFormat("yyyyMMdd");
-    private final SimpleDateFormat formatMonthInfo = new SimpleDateFormat("yyyyMM");
+    private String rollupCollectionName = null;
 
+    private PartitionLease rollupLease = null;
 
-    protected String getCollectionName() {
-        final Date nowInfo = new Date();
-        return collectionName
-                .replaceAll("__HOUR_INFO__", formatHourInfo.format(nowInfo))
-                .replaceAll("__DAY_INFO__", formatDayInfo.format(nowInfo))
-                .replaceAll("__MONTH_INFO__", formatMonthInfo.format(nowInfo));
-    }
+    private String metricsCollectionName = null;
+
+    private int metricsFlushSeconds = 60;
 
+    private int compactionDelayMinutes = 60;
+
+    private PartitionCompactor compactor = null;
+
+    private String timeSeriesMetaField = "host";
+
+    private String timeSeriesGranularity = "seconds";
+
+    private long timeSeriesExpireAfterSeconds = 0;
+
+    private long cappedSizeBytes = 1024L * 1024L * 1024L;
+
+    private long cappedMaxDocuments = 0;
+
+    private String shardKey = null;
+
+    private int shardInitialChunks = 0;
+
+    private Document shardKeys = null;
 
     /**
-     * @see org.apache.log4j.Appender#close()
+     * Written by the append thread and the scheduler preparing collections ahead
      */
-    public void close() {
+    private volatile boolean shardingEnabled = false;
 
-        if (mongo != null) {
-            collection = null;
-            mongo.close();
-        }
+    private MongoClient mongo = null;
 
-    }
+    private boolean shareMongoClient = true;
 
     /**
-     * @see org.apache.log4j.Appender#requiresLayout()
+     * True if mongo was acquired from MongoClientRegistry, so it's released instead of closed
      */
-    public boolean requiresLayout() {
-        return (false);
-    }
+    private boolean mongoShared = false;
 
-    private long[] timeoutSetting = new long[6];
+    private MongoClientOptions mongoClientOptions = MongoClientOptions.builder().build();
 
-    protected long getTimeoutSetting(Level loggingLevel) {
-        switch (loggingLevel.toString().toLowerCase()) {
-            case "fatal":
-                return timeoutSetting[5];
-            case "error":
-                return timeoutSetting[4];
-            case "warn":
-                return timeoutSetting[3];
-            case "info":
-                return timeoutSetting[2];
-            case "debug":
-                return timeoutSetting[1];
-            case "trace":
-                return timeoutSetting[0];
-            default:
-                return 1892160000L;
-        }
-    }
+    private String compressors = "snappy";
 
-    private final List<Document> dataBuffer = Lists.newArrayList();
+    private int connectionsPerHost = -1;
 
-    /**
-     * @see org.apache.log4j.AppenderSkeleton#activateOptions()
-     */
-    @Override
-    public void activateOptions() {
-        try {
-            // Close previous connections if reactivating
-            if (mongo != null) {
-                close();
-            }
+    private int minConnectionsPerHost = -1;
 
-            MongoCredential credentials = null;
-            if (userName != null && userName.trim().length() > 0) {
-                credentials = MongoCredential.createCredential(userName,
-                        authorizeDB == null ? databaseName : getAuthorizeDB(), password.toCharArray());
-                password = null;
-            }
+    private int maxWaitTime = -1;
 
-            // Make configuration here
-            MongoClientOptions options = MongoClientOptions.builder()
-                    .compressorList(Lists.newArrayList(MongoCompressor.createSnappyCompressor()))
-                    .build();
+    private int connectTimeout = -1;
 
-            mongo = getMongo(
-                    getServerAddresses(hostname, port),
-                    credentials,
-                    options
-            );
+    private int socketTimeout = -1;
 
-            final String[] splittedTimeout = getTimeoutMills().split(",");
-            if (splittedTimeout.length != 6) {
-                throw new RuntimeException("Invalid timeout setting, should be 6 positive integer splitted with \",\".");
-            }
-            for (int i = 0; i < 6; i++) {
-                timeoutSetting[i] = Long.parseLong(splittedTimeout[i]);
-                if (timeoutSetting[i] <= 0) {
-                    throw new RuntimeException("Invalid timeout setting, number should be positive integer.");
-                }
-            }
+    private int serverSelectionTimeout = -1;
 
-            initialized = true;
-        } catch (Exception e) {
-            errorHandler.error("Unexpected exception while initialising MongoDbAppender.", e,
-                    ErrorCode.GENERIC_FAILURE);
-        }
-    }
+    private int heartbeatFrequency = -1;
+
+    private int circuitBreakerFailures = 0;
+
+    private long circuitBreakerMaxBackoffMillis = 60000L;
+
+    private CircuitBreaker circuitBreaker = null;
+
+    private int maxBufferedDocuments = 0;
 
     /**
-     * @param generatedDocument The BSON representation of a Logging Event that will be stored
-     * @param loggingEvent      raw data for external using
-     * @see org.log4mongo.BsonAppender#append(Document, LoggingEvent)
+     * Documents dropped since the last successful write, only the first drop of an outage is reported
      */
-    @Override
-    public void append(Document generatedDocument, LoggingEvent loggingEvent) {
-        if (initialized && generatedDocument != null) {
-            try {
-                final Date expiredDate = new Date(getTimeoutSetting(loggingEvent.getLevel()) + System.currentTimeMillis());
-                generatedDocument.append("log_timeout", expiredDate);
-                getCollection().insertOne(generatedDocument);
-                if (!dataBuffer.isEmpty()) {
-                    getCollection().insertMany(dataBuffer);
-                    dataBuffer.clear();
-                }
-            } catch (MongoException e) {
-                dataBuffer.add(generatedDocument);
-                errorHandler.error("Failed to insert document to MongoDB", e, ErrorCode.WRITE_FAILURE);
-            }
-        }
-    }
+    private final AtomicLong droppedDocuments = new AtomicLong();
 
-    /*
-     * This method could be overridden to provide the DB instance from an existing connection.
+    /**
+     * Documents not protected by the write-ahead log since it was full, only the first one is reported
      */
-    protected MongoDatabase getDatabase(MongoClient mongo, String databaseName) {
-        return mongo.getDatabase(databaseName);
-    }
+    private final AtomicLong unprotectedDocuments = new AtomicLong();
 
-    /*
-     * This method could be overridden to provide the Mongo instance from an existing connection.
-     */
-    protected MongoClient getMongo(List<ServerAddress> addresses) {
-        if (addresses.size() < 2) {
-            return new MongoClient(addresses.get(0));
-        } else {
-            // Replica set
-            return new MongoClient(addresses);
-        }
-    }
+    private String deadLetterCollectionName = null;
 
-    private MongoClient getMongo(List<ServerAddress> addresses, MongoCredential credential, MongoClientOptions options) {
-        if (credential == null) {
-            return this.getMongo(addresses);
-        }
+    private boolean adaptiveShedding = false;
 
-        if (addresses.size() < 2) {
-            return new MongoClient(addresses.get(0), credential, options);
-        } else {
-            // Replica set
-            return new MongoClient(addresses, credential, options);
-        }
-    }
+    private long sheddingLatencyMillis = 200;
+
+    private volatile LoadShedder loadShedder = null;
+
+    private double heapPressureThreshold = 0;
+
+    private volatile HeapPressureMonitor heapPressureMonitor = null;
+
+    private String spillDirectory = null;
+
+    private int spillSegmentSize = 64 * 1024 * 1024;
+
+    private int spillMaxSegments = 16;
+
+    private SpillStore spillStore = null;
+
+    private String walFile = null;
+
+    private int walSize = 16 * 1024 * 1024;
+
+    private WriteAheadLog writeAheadLog = null;
 
     /**
-     * Note: this method is primarily intended for use by the unit tests.
-     *
-     * @param collection The MongoDB collection to use when logging events.
+     * Tickets of documents in the write-ahead log by identity, they are committed after the documents
+     * are stored or spilled
      */
-    public void setCollection(final MongoCollection<Document> collection) {
-        if (collection == null) throw new RuntimeException("collection must not be null");
-        this.collection = collection;
-    }
+    private final Map<Document, Long> walTickets = new IdentityHashMap<>();
 
     /**
-     * @return The hostname of the MongoDB server <i>(will not be null, empty or blank)</i>.
+     * Collections of current period, more than one if the template contains __LEVEL_INFO__
      */
-    public String getHostname() {
-        return hostname;
-    }
+    private final Map<String, MongoCollection<Document>> collections = new ConcurrentHashMap<>();
 
     /**
-     * @param hostname The MongoDB hostname to set <i>(must not be null, empty or blank)</i>.
+     * Collections of current period with write concerns, keyed by name and write concern
      */
-    public void setHostname(final String hostname) {
-        if (hostname == null) throw new RuntimeException("hostname must not be null");
-        if (hostname.trim().length() <= 0) throw new RuntimeException("hostname must not be empty or blank");
-        this.hostname = hostname;
-    }
+    private final Map<List<Object>, MongoCollection<Document>> concernCollections = new ConcurrentHashMap<>();
+
+    private volatile boolean initialized = false;
+
+    private volatile String lastCollectionName = "";
+
+    private int collectionPrepareAheadSeconds = 0;
 
     /**
-     * @return The port of the MongoDB server <i>(will be greater than 0)</i>.
+     * Names of collections whose existence and indexes have already been checked, so the append
+     * path never has to run DDL for them again. Pruned to the current and next period on rollover.
      */
-    public String getPort() {
-        return port;
-    }
+    private final Set<String> verifiedCollections = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler = null;
+
+    private ScheduledExecutorService controlScheduler = null;
+
+    private ScheduledExecutorService maintenanceScheduler = null;
 
     /**
-     * @param port The port to set <i>(must not be null, empty or blank)</i>.
+     * True after closing, background jobs can't be scheduled until activating again
      */
-    public void setPort(final String port) {
-        if (port == null) throw new RuntimeException("port must not be null");
-        if (port.trim().length() <= 0) throw new RuntimeException("port must not be empty or blank");
+    private volatile boolean shutdown = false;
+
+    // DateTimeFormatter is thread safe, names are also generated by the background scheduler
+    private static final DateTimeFormatter formatHourInfo = DateTimeFormatter.ofPattern("yyyyMMdd_HH").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter formatDayInfo = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter formatMonthInfo = DateTimeFormatter.ofPattern("yyyyMM").withZone(ZoneId.systemDefault());
 
-        this.port = port;
-    }
 
     /**
-     * @return The database used in the MongoDB server <i>(will not be null, empty or blank)</i>.
+     * @return collection name template with only time and level macros left
      */
-    public String getDatabaseName() {
-        return databaseName;
+    protected String getCollectionNameTemplate() {
+        return collectionName;
     }
 
     /**
-     * @param databaseName The database to use in the MongoDB server <i>(must not be null, empty or
-     *                     blank)</i>.
+     * @return collection name of the current time without level
+     * @deprecated Not called by the appender any more, names are resolved by time and level, override
+     * {@link #getCollectionNameTemplate()} or {@link #getCollectionName(Date, Level)} instead.
      */
-    public void setDatabaseName(final String databaseName) {
-        if (databaseName == null) throw new RuntimeException("database must not be null");
-        if (databaseName.trim().length() <= 0) throw new RuntimeException("database must not be empty or blank");
-
-        this.databaseName = databaseName;
+    @Deprecated
+    protected String getCollectionName() {
+        return getCollectionName(new Date(), null);
     }
 
     /**
-     * @param collectionName The collection used within the database in the MongoDB server <i>(must not be
-     *                       null, empty or blank)</i>.
+     * Resolve the collection name template for a given time and level, this method must be thread
+     * safe because it's also called by background tasks.
+     *
+     * @param time  the time to resolve time macros with
+     * @param level the level to resolve __LEVEL_INFO__ with <i>(may be null)</i>
+     * @return collection name
      */
-    public void setCollectionName(final String collectionName) {
-        if (collectionName == null) throw new RuntimeException("collection must not be null");
-        if (collectionName.trim().length() <= 0) throw new RuntimeException("collection must not be empty or blank");
-
-        this.collectionName = collectionName;
+    protected String getCollectionName(Date time, Level level) {
+        return resolveCollectionName(getCollectionNameTemplate(), time, level);
     }
 
     /**
-     * @return The userName used to authenticate with MongoDB <i>(may be null)</i>.
+     * Resolve time and level macros in a collection name template.
+     *
+     * @param template collection name template
+     * @param time     the time to resolve time macros with
+     * @param level    the level to resolve __LEVEL_INFO__ with <i>(may be null)</i>
+     * @return collection name
      */
-    public String getUserName() {
-        return userName;
+    protected static String resolveCollectionName(String template, Date time, Level level) {
+        return template
+                .replaceAll("__HOUR_INFO__", formatHourInfo.format(time.toInstant()))
+                .replaceAll("__DAY_INFO__", formatDayInfo.format(time.toInstant()))
+                .replaceAll("__MONTH_INFO__", formatMonthInfo.format(time.toInstant()))
+                .replaceAll("__LEVEL_INFO__", level == null ? "" : level.toString().toLowerCase());
     }
 
     /**
-     * @param userName The userName to use when authenticating with MongoDB <i>(may be null)</i>.
+     * @param time the time to resolve time macros with
+     * @return names of all collections of the period, one for each level if the template contains
+     * __LEVEL_INFO__
      */
-    public void setUserName(final String userName) {
-        this.userName = userName;
+    protected List<String> getCollectionNames(Date time) {
+        if (!getCollectionNameTemplate().contains("__LEVEL_INFO__")) {
+            return Lists.newArrayList(getCollectionName(time, null));
+        }
+        final List<String> names = Lists.newArrayList();
+        for (Level level : LEVELS) {
+            names.add(getCollectionName(time, level));
+        }
+        return names;
     }
 
+
     /**
-     * @param password The password to use when authenticating with MongoDB <i>(may be null)</i>.
+     * @see org.apache.log4j.Appender#close()
      */
-    public void setPassword(final String password) {
-        this.password = password;
+    public void close() {
+
+        final ScheduledExecutorService executor;
+        final ScheduledExecutorService control;
+        final ScheduledExecutorService maintenance;
+        final ExecutorService writer;
+        synchronized (this) {
+            if (initialized) {
+                flushCollapsedEvents();
+                discardFlightRecords();
+            }
+            shutdown = true;
+            executor = scheduler;
+            scheduler = null;
+            control = controlScheduler;
+            controlScheduler = null;
+            maintenance = maintenanceScheduler;
+            maintenanceScheduler = null;
+            writer = asyncWriter;
+            asyncWriter = null;
+        }
+        // Wait outside the lock, running jobs may need it to finish
+        if (control != null) {
+            control.shutdownNow();
+            awaitTermination(control, "Control loops");
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            awaitTermination(executor, "Background jobs");
+        }
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+            awaitTermination(maintenance, "Maintenance jobs");
+        }
+        if (writer != null) {
+            // Not interrupted in the middle of a batch, it stops after the batch since shutdown is set
+            writer.shutdown();
+            awaitTermination(writer, "Async writer");
+        }
+        synchronized (this) {
+            closeResources();
+        }
     }
 
-    /**
-     * @return the writeConcern setting for Mongo.
-     */
-    public String getWriteConcern() {
-        return writeConcern;
+    private void awaitTermination(ExecutorService executor, String jobs) {
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LogLog.warn(jobs + " of appender " + getName() + " didn't stop in 10 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * @param writeConcern The WriteConcern setting for Mongo.<i>(may be null). If null, set to default of
-     *                     dbCollection's writeConcern.</i>
+     * Flush pending documents and release the resources after background jobs stopped.
      */
-    public void setWriteConcern(final String writeConcern) {
-        this.writeConcern = writeConcern;
-        String[] writeConcernConfig = writeConcern.split(",");
-        if (writeConcernConfig.length == 1) {
-            concern = WriteConcern.valueOf(writeConcern);
-        } else if (writeConcernConfig.length == 2) {
-            concern = WriteConcern.valueOf(writeConcernConfig[0]).withWTimeout(Long.parseLong(writeConcernConfig[1]), TimeUnit.MILLISECONDS);
-        } else {
-            throw new RuntimeException("Invalid write concern setting" + writeConcern);
+    private void closeResources() {
+        if (initialized && asyncQueue != null) {
+            flushAsyncQueue();
+        }
+        verifiedCollections.clear();
+        collections.clear();
+        concernCollections.clear();
+        lastCollectionName = "";
+        rollupLease = null;
+        asyncQueue = null;
+        loadShedder = null;
+        if (heapPressureMonitor != null) {
+            heapPressureMonitor.close();
+            heapPressureMonitor = null;
+        }
+        if (spillStore != null) {
+            spillStore.close();
+            spillStore = null;
+        }
+        if (writeAheadLog != null) {
+            // Documents not committed are recovered after activating again
+            writeAheadLog.close();
+            writeAheadLog = null;
+            synchronized (walTickets) {
+                dataBuffer.removeIf(walTickets::containsKey);
+                walTickets.clear();
+                bufferedDocuments = dataBuffer.size();
+            }
         }
-    }
 
-    public WriteConcern getConcern() {
-        if (concern == null) {
-            concern = getCollection().getWriteConcern();
+        if (mongo != null) {
+            if (initialized && getEventCounters() != null) {
+                flushEventCounters();
+            }
+            initialized = false;
+            if (mongoShared) {
+                MongoClientRegistry.release(mongo);
+            } else {
+                mongo.close();
+            }
+            mongo = null;
         }
-        return concern;
-    }
 
+    }
 
     /**
-     * Returns true if appender was successfully initialized. If this method returns false, the
-     * appender should not attempt to log events.
-     *
-     * @return true if appender was successfully initialized
+     * @return executor for background jobs of this appender, created while first using
+     * @throws RejectedExecutionException if the appender is closed
      */
-    public boolean isInitialized() {
-        return initialized;
+    protected synchronized ScheduledExecutorService getScheduler() {
+        if (shutdown) {
+            throw new RejectedExecutionException("Appender " + getName() + " is closed");
+        }
+        if (scheduler == null) {
+            scheduler = newScheduler("log4mongo-" + getName() + "-%d");
+        }
+        return scheduler;
     }
 
     /**
-     * @return The MongoDB collection to which events are logged.
+     * @return executor for the control loops such as load shedding and probing, they are short and
+     * never wait behind the jobs of {@link #getScheduler()}
+     * @throws RejectedExecutionException if the appender is closed
      */
-    protected MongoCollection<Document> getCollection() {
-        final String currentName = getCollectionName();
-        if (!lastCollectionName.equals(currentName)) {
-            final MongoDatabase db = getDatabase(mongo, databaseName);
-            final Set<String> collectionSet = Sets.newHashSet(db.listCollectionNames());
-            if (!collectionSet.contains(currentName)) {
-                MongoCollection<Document> coll = db.getCollection(currentName);
-                coll.createIndex(new Document("log_timeout", 1), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
-                for (String indexSet : getIndexSetting().split(",")) {
-                    String[] indexSetDetail = indexSet.split(":");
-                    if (indexSetDetail.length == 2) {
-                        try {
-                            int indexInfo = Integer.parseInt(indexSetDetail[1]);
-                            coll.createIndex(new Document(indexSetDetail[0], indexInfo));
-                        } catch (Exception ex) {
-                            coll.createIndex(new Document(indexSetDetail[0], indexSetDetail[1]));
-                        }
-                    }
-                }
-            }
-            setCollection(db.getCollection(currentName));
-            lastCollectionName = currentName;
+    protected synchronized ScheduledExecutorService getControlScheduler() {
+        if (shutdown) {
+            throw new RejectedExecutionException("Appender " + getName() + " is closed");
         }
-        if (concern == null) {
-            return collection;
+        if (controlScheduler == null) {
+            controlScheduler = newScheduler("log4mongo-" + getName() + "-control");
         }
-        return collection.withWriteConcern(concern);
+        return controlScheduler;
     }
 
     /**
-     * Returns a List of ServerAddress objects for each host specified in the hostname property.
+     * @return executor for long maintenance jobs such as compaction, which may run for minutes and
+     * shouldn't delay the jobs of {@link #getScheduler()}
+     * @throws RejectedExecutionException if the appender is closed
+     */
+    protected synchronized ScheduledExecutorService getMaintenanceScheduler() {
+        if (shutdown) {
+            throw new RejectedExecutionException("Appender " + getName() + " is closed");
+        }
+        if (maintenanceScheduler == null) {
+            maintenanceScheduler = newScheduler("log4mongo-" + getName() + "-maintenance");
+        }
+        return maintenanceScheduler;
+    }
+
+    private static ScheduledExecutorService newScheduler(String nameFormat) {
+        return Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat(nameFormat)
+                        .build()
+        );
+    }
+
+    /**
+     * @see org.apache.log4j.Appender#requiresLayout()
+     */
+    public boolean requiresLayout() {
+        return (false);
+    }
+
+    private long[] timeoutSetting = new long[6];
+
+    /**
+     * Levels in the order of timeoutMills setting
+     */
+    protected static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR, Level.FATAL};
+
+    /**
+     * @param loggingLevel level of the log
+     * @return index of the level in {@link #LEVELS}, -1 for custom levels
+     */
+    protected static int getLevelIndex(Level loggingLevel) {
+        switch (loggingLevel.toInt()) {
+            case Level.FATAL_INT:
+                return 5;
+            case Level.ERROR_INT:
+                return 4;
+            case Level.WARN_INT:
+                return 3;
+            case Level.INFO_INT:
+                return 2;
+            case Level.DEBUG_INT:
+                return 1;
+            case Level.TRACE_INT:
+                return 0;
+            default:
+                return -1;
+        }
+    }
+
+    protected long getTimeoutSetting(Level loggingLevel) {
+        final int levelIndex = getLevelIndex(loggingLevel);
+        return levelIndex < 0 ? 1892160000L : timeoutSetting[levelIndex];
+    }
+
+    private final List<Document> dataBuffer = Lists.newArrayList();
+
+    /**
+     * Size of dataBuffer after the last change, read by the control loops without the appender lock
+     */
+    private volatile int bufferedDocuments = 0;
+
+    /**
+     * Documents of metrics collection written by the next flush of event counters, such as shedding decisions
+     */
+    private final Queue<Document> metricDocuments = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Subclasses overriding the hooks no longer called would silently log to other collections.
+     */
+    private void warnDeprecatedOverrides() {
+        for (Class<?> c = getClass(); c != MongoDbAppender.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("getCollectionName");
+                LogLog.warn(c.getName() + " overrides getCollectionName() which is no longer used, "
+                        + "override getCollectionNameTemplate() or getCollectionName(Date, Level) instead");
+                return;
+            } catch (NoSuchMethodException e) {
+                // Not overridden by this class
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.log4j.AppenderSkeleton#activateOptions()
+     */
+    @Override
+    public void activateOptions() {
+        try {
+            // Close previous connections if reactivating
+            if (mongo != null) {
+                close();
+            }
+            synchronized (this) {
+                shutdown = false;
+            }
+            warnDeprecatedOverrides();
+            // The database may be changed, enable sharding for it again
+            shardingEnabled = false;
+
+            if (connectionString != null && connectionString.trim().length() > 0) {
+                // Options in the URI take precedence over the appender properties
+                final MongoClientURI uri = new MongoClientURI(connectionString.trim(), getMongoClientOptionsBuilder());
+                if (uri.getDatabase() != null) {
+                    databaseName = uri.getDatabase();
+                }
+                mongoClientOptions = uri.getOptions();
+                mongoShared = shareMongoClient;
+                if (mongoShared) {
+                    mongo = MongoClientRegistry.acquire(
+                            Arrays.asList(getMongoFactoryClass(MongoClientURI.class), uri.getURI(), getMongoClientOptionsKey()),
+                            () -> getMongo(uri)
+                    );
+                } else {
+                    mongo = getMongo(uri);
+                }
+            } else {
+                MongoCredential credentials = null;
+                if (userName != null && userName.trim().length() > 0) {
+                    credentials = MongoCredential.createCredential(userName,
+                            authorizeDB == null ? databaseName : getAuthorizeDB(), password.toCharArray());
+                    password = null;
+                }
+
+                final MongoClientOptions options = getMongoClientOptionsBuilder().build();
+                mongoClientOptions = options;
+
+                final List<ServerAddress> addresses = getServerAddresses(hostname, port);
+                mongoShared = shareMongoClient;
+                if (mongoShared) {
+                    final MongoCredential credential = credentials;
+                    mongo = MongoClientRegistry.acquire(
+                            Arrays.asList(getMongoFactoryClass(List.class), addresses, credentials, getMongoClientOptionsKey()),
+                            () -> getMongo(addresses, credential, options)
+                    );
+                } else {
+                    mongo = getMongo(addresses, credentials, options);
+                }
+            }
+
+            final String[] splittedTimeout = getTimeoutMills().split(",");
+            if (splittedTimeout.length != 6) {
+                throw new RuntimeException("Invalid timeout setting, should be 6 positive integer splitted with \",\".");
+            }
+            for (int i = 0; i < 6; i++) {
+                timeoutSetting[i] = Long.parseLong(splittedTimeout[i]);
+                if (timeoutSetting[i] <= 0) {
+                    throw new RuntimeException("Invalid timeout setting, number should be positive integer.");
+                }
+            }
+
+            indexDefinitions = IndexDefinition.parse(getIndexSetting());
+            if (COLLECTION_TYPE_TIME_SERIES.equals(collectionType)) {
+                for (IndexDefinition index : indexDefinitions) {
+                    if (!index.isSupportedByTimeSeries()) {
+                        LogLog.warn("Index " + index + " is skipped, it's not supported by time series collections");
+                    }
+                }
+            }
+            if (deferIndexBuild) {
+                final String template = getCollectionNameTemplate();
+                if (!template.contains("__HOUR_INFO__") && !template.contains("__DAY_INFO__")
+                        && !template.contains("__MONTH_INFO__")) {
+                    throw new RuntimeException("deferIndexBuild requires __HOUR_INFO__, __DAY_INFO__ or __MONTH_INFO__ "
+                            + "in the collection name, indexes are built after the period");
+                }
+                for (IndexDefinition index : indexDefinitions) {
+                    index.getOptions().background(true);
+                }
+                // The build after the last rollover is lost if the process was stopped before it ran
+                getScheduler().schedule(this::buildPreviousPeriodIndexes,
+                        ThreadLocalRandom.current().nextLong(60000), TimeUnit.MILLISECONDS);
+            }
+            if (shardKey != null && shardKey.trim().length() > 0) {
+                shardKeys = IndexDefinition.parseKeys(shardKey);
+            }
+
+            if (compactHourlyCollections) {
+                if (!COLLECTION_TYPE_NORMAL.equals(collectionType)) {
+                    throw new RuntimeException("Only normal collections can be compacted");
+                }
+                compactor = new PartitionCompactor(getDatabase(mongo, databaseName), getCollectionNameTemplate(), coll -> {
+                    createTimeoutIndexes(coll);
+                    createIndexes(coll);
+                });
+                final long period = TimeUnit.MINUTES.toMillis(10);
+                getMaintenanceScheduler().scheduleAtFixedRate(
+                        this::compactCollections,
+                        ThreadLocalRandom.current().nextLong(period),
+                        period,
+                        TimeUnit.MILLISECONDS
+                );
+            }
+
+            retentionManagers.clear();
+            if (RETENTION_MODE_DROP_COLLECTION.equals(retentionMode)) {
+                retentionManagers.add(new PartitionRetentionManager(getCollectionNameTemplate(), ZoneId.systemDefault()));
+                if (compactHourlyCollections) {
+                    retentionManagers.add(new PartitionRetentionManager(
+                            PartitionCompactor.getDailyTemplate(getCollectionNameTemplate()), ZoneId.systemDefault()));
+                }
+                final long period = TimeUnit.MINUTES.toMillis(10);
+                getMaintenanceScheduler().scheduleAtFixedRate(
+                        this::dropExpiredCollections,
+                        ThreadLocalRandom.current().nextLong(period),
+                        period,
+                        TimeUnit.MILLISECONDS
+                );
+            }
+
+            if (metricsCollectionName != null && metricsCollectionName.trim().length() > 0) {
+                setEventCounters(new EventCounters());
+                getScheduler().scheduleWithFixedDelay(
+                        this::flushEventCounters,
+                        metricsFlushSeconds,
+                        metricsFlushSeconds,
+                        TimeUnit.SECONDS
+                );
+            } else {
+                setEventCounters(null);
+            }
+
+            circuitBreaker = circuitBreakerFailures > 0
+                    ? new CircuitBreaker(circuitBreakerFailures, Math.min(1000L, circuitBreakerMaxBackoffMillis),
+                    circuitBreakerMaxBackoffMillis)
+                    : null;
+
+            if (spillDirectory != null && spillDirectory.trim().length() > 0) {
+                // Documents spilled before restarting are replayed as well
+                spillStore = new SpillStore(new File(spillDirectory.trim()), getName() == null ? "log4mongo" : getName(),
+                        spillSegmentSize, spillMaxSegments);
+                getScheduler().scheduleWithFixedDelay(
+                        this::replaySpilled,
+                        ThreadLocalRandom.current().nextLong(5000),
+                        5000,
+                        TimeUnit.MILLISECONDS
+                );
+            }
+
+            if (adaptiveShedding) {
+                if (maxBufferedDocuments <= 0) {
+                    throw new RuntimeException("adaptiveShedding requires maxBufferedDocuments, the pressure is relative to it");
+                }
+                final boolean async = asyncLevels != null && asyncLevels.trim().length() > 0;
+                loadShedder = new LoadShedder(maxBufferedDocuments + (async ? asyncQueueSize : 0), sheddingLatencyMillis);
+                getControlScheduler().scheduleWithFixedDelay(this::updateShedding, 1, 1, TimeUnit.SECONDS);
+            } else {
+                loadShedder = null;
+            }
+
+            if (heapPressureMonitor != null) {
+                heapPressureMonitor.close();
+                heapPressureMonitor = null;
+            }
+            if (heapPressureThreshold > 0) {
+                final HeapPressureMonitor monitor = new HeapPressureMonitor(heapPressureThreshold);
+                // GC notifications are not sent by every JVM, check periodically on the control loop too
+                getControlScheduler().scheduleWithFixedDelay(monitor::check, 1, 1, TimeUnit.SECONDS);
+                heapPressureMonitor = monitor;
+            }
+
+            if (getCollapseWindowMillis() > 0) {
+                // Write summaries of bursts even if no event is appended
+                getScheduler().scheduleWithFixedDelay(this::flushCollapsedEvents,
+                        getCollapseWindowMillis(), getCollapseWindowMillis(), TimeUnit.MILLISECONDS);
+            }
+
+            if (getFlightRecorderLevel() != null) {
+                final long period = Math.min(getFlightRecorderIdleMillis(), 10000);
+                getScheduler().scheduleWithFixedDelay(this::expireFlightRecords, period, period, TimeUnit.MILLISECONDS);
+            }
+
+            if (asyncLevels != null && asyncLevels.trim().length() > 0) {
+                final BlockingQueue<Document> queue = new ArrayBlockingQueue<>(asyncQueueSize);
+                asyncQueue = queue;
+                asyncWriter = Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder()
+                                .setDaemon(true)
+                                .setNameFormat("log4mongo-" + getName() + "-async")
+                                .build());
+                asyncWriter.execute(() -> runAsyncWriter(queue));
+            }
+
+            if (walFile != null && walFile.trim().length() > 0) {
+                writeAheadLog = new WriteAheadLog(new File(walFile.trim()), walSize);
+                final List<Document> recovered = writeAheadLog.recover();
+                if (!recovered.isEmpty()) {
+                    LogLog.warn("Recovered " + recovered.size() + " documents from write-ahead log " + walFile);
+                }
+                // Written by next appending or probing, the log keeps them until then
+                for (Document document : recovered) {
+                    logDocument(document);
+                    bufferDocument(document);
+                }
+            }
+
+            if (collectionPrepareAheadSeconds > 0) {
+                // Check at least once a minute, random initial delay to avoid all JVMs doing DDL at the same time
+                final long period = Math.min(collectionPrepareAheadSeconds, 60);
+                getScheduler().scheduleAtFixedRate(
+                        this::prepareCollections,
+                        ThreadLocalRandom.current().nextLong(period * 1000),
+                        period * 1000,
+                        TimeUnit.MILLISECONDS
+                );
+            }
+
+            initialized = true;
+        } catch (Exception e) {
+            errorHandler.error("Unexpected exception while initialising MongoDbAppender.", e,
+                    ErrorCode.GENERIC_FAILURE);
+        }
+    }
+
+    /**
+     * @param generatedDocument The BSON representation of a Logging Event that will be stored
+     * @param loggingEvent      raw data for external using
+     * @see org.log4mongo.BsonAppender#append(Document, LoggingEvent)
+     */
+    @Override
+    public void append(Document generatedDocument, LoggingEvent loggingEvent) {
+        if (initialized && generatedDocument != null) {
+            prepareDocument(generatedDocument, loggingEvent);
+            if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                // Fail fast while MongoDB is unavailable, the buffer is written after recovering
+                bufferDocument(generatedDocument);
+                return;
+            }
+            final BlockingQueue<Document> queue = asyncQueue;
+            final int levelIndex = getLevelIndex(loggingEvent.getLevel());
+            if (queue != null && levelIndex >= 0 && asyncLevelFlags[levelIndex]) {
+                if (!queue.offer(generatedDocument)) {
+                    // Fire and forget, never wait for MongoDB
+                    dropDocument(generatedDocument, "async queue of " + asyncQueueSize + " documents is full");
+                }
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                getCollection(loggingEvent.getLevel()).insertOne(generatedDocument);
+            } catch (MongoWriteException e) {
+                if (BulkWriteFailures.isPermanent(e.getError())) {
+                    deadLetter(generatedDocument, e.getError().getCode(), e.getError().getMessage());
+                    return;
+                }
+                if (!BulkWriteFailures.isDuplicate(e.getError())) {
+                    onWriteFailure(generatedDocument, e);
+                    return;
+                }
+            } catch (BSONException | CodecConfigurationException e) {
+                deadLetter(generatedDocument, -1, e.toString());
+                return;
+            } catch (MongoException e) {
+                recordLatency(start);
+                onWriteFailure(generatedDocument, e);
+                return;
+            }
+            recordLatency(start);
+            commitDocument(generatedDocument);
+            onWriteSuccess();
+            if (!dataBuffer.isEmpty()) {
+                try {
+                    insertBuffer();
+                } catch (MongoException e) {
+                    errorHandler.error("Failed to insert buffered documents to MongoDB", e, ErrorCode.WRITE_FAILURE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert documents in one batch, such as the recorded events of a scope, the documents failed
+     * are buffered.
+     */
+    @Override
+    protected void append(List<Document> documents, List<LoggingEvent> loggingEvents) {
+        if (!initialized) {
+            return;
+        }
+        for (int i = 0; i < documents.size(); i++) {
+            prepareDocument(documents.get(i), loggingEvents.get(i));
+        }
+        final List<Document> batch = Lists.newArrayList(documents);
+        if (circuitBreaker == null || circuitBreaker.allowRequest()) {
+            final long start = System.nanoTime();
+            try {
+                insertDocuments(batch);
+                recordLatency(start);
+                onWriteSuccess();
+            } catch (MongoException e) {
+                recordLatency(start);
+                errorHandler.error("Failed to insert documents to MongoDB", e, ErrorCode.WRITE_FAILURE);
+                if (circuitBreaker != null && circuitBreaker.recordFailure()) {
+                    LogLog.warn("Circuit of appender " + getName() + " is opened, logs are buffered until MongoDB is available");
+                    scheduleProbe();
+                }
+            }
+        }
+        batch.forEach(this::bufferDocument);
+    }
+
+    /**
+     * Set the _id and the expiry of a document and append it to the write-ahead log before writing.
+     */
+    private void prepareDocument(Document document, LoggingEvent loggingEvent) {
+        if (!document.containsKey("_id")) {
+            // Unique by time, machine, process and counter, so retrying never duplicates the log
+            document.append("_id", new ObjectId(new Date(loggingEvent.getTimeStamp())));
+        }
+        if (isDocumentTimeoutEnabled()) {
+            final Date expiredDate = new Date(getTimeoutSetting(loggingEvent.getLevel()) + System.currentTimeMillis());
+            document.append("log_timeout", expiredDate);
+        }
+        logDocument(document);
+    }
+
+    private void onWriteFailure(Document document, MongoException e) {
+        bufferDocument(document);
+        errorHandler.error("Failed to insert document to MongoDB", e, ErrorCode.WRITE_FAILURE);
+        if (circuitBreaker != null && circuitBreaker.recordFailure()) {
+            LogLog.warn("Circuit of appender " + getName() + " is opened, logs are buffered until MongoDB is available");
+            scheduleProbe();
+        }
+    }
+
+    /**
+     * Events are shed before entering the synchronized AppenderSkeleton#doAppend while the appender
+     * or the heap is under pressure.
+     *
+     * @see org.apache.log4j.AppenderSkeleton#doAppend(org.apache.log4j.spi.LoggingEvent)
+     */
+    @Override
+    public void doAppend(final LoggingEvent loggingEvent) {
+        final LoadShedder shedder = loadShedder;
+        if (shedder != null && shedder.shouldShed(loggingEvent.getLevel())) {
+            countEvent(loggingEvent, true);
+            return;
+        }
+        if (isLean() && loggingEvent.getLevel().toInt() <= Level.DEBUG_INT) {
+            countEvent(loggingEvent, true);
+            return;
+        }
+        super.doAppend(loggingEvent);
+    }
+
+    /**
+     * @see org.log4mongo.BsonAppender#isLean()
+     */
+    @Override
+    protected boolean isLean() {
+        final HeapPressureMonitor monitor = heapPressureMonitor;
+        return monitor != null && monitor.isLean();
+    }
+
+    private void recordLatency(long startNanos) {
+        final LoadShedder shedder = loadShedder;
+        if (shedder != null) {
+            shedder.recordLatency((System.nanoTime() - startNanos) / 1000000.0);
+        }
+    }
+
+    /**
+     * Update the shedding level by the pending documents and the latency, called by the control loop
+     * without the appender lock. Every change of the level is recorded in metrics collection by the
+     * next flush of event counters.
+     */
+    private void updateShedding() {
+        final LoadShedder shedder = loadShedder;
+        if (shedder == null) {
+            return;
+        }
+        final BlockingQueue<Document> queue = asyncQueue;
+        final int depth = bufferedDocuments + (queue == null ? 0 : queue.size());
+        final int previous = shedder.getSheddingLevel();
+        final int level = shedder.update(depth);
+        if (level == previous) {
+            return;
+        }
+        LogLog.warn("Shedding level of appender " + getName() + " changed from " + previous + " to " + level
+                + ", pressure " + shedder.getPressure());
+        if (initialized && getEventCounters() != null) {
+            metricDocuments.add(new Document("type", "shedding")
+                    .append("timestamp", new Date())
+                    .append("appender", getName())
+                    .append("previousLevel", previous)
+                    .append("level", level)
+                    .append("pressure", shedder.getPressure())
+                    .append("queueDepth", depth)
+                    .append("latencyMillis", shedder.getLatencyMillis()));
+        }
+    }
+
+    /**
+     * Keep a document not written in buffer, it's discarded if the buffer is full.
+     */
+    private void bufferDocument(Document document) {
+        if (spillStore != null) {
+            try {
+                if (spillStore.append(document)) {
+                    commitDocument(document);
+                    return;
+                }
+            } catch (IOException e) {
+                LogLog.warn("Failed to spill document to " + spillDirectory, e);
+            }
+        }
+        if (maxBufferedDocuments <= 0 || dataBuffer.size() < maxBufferedDocuments) {
+            dataBuffer.add(document);
+            bufferedDocuments = dataBuffer.size();
+        } else {
+            dropDocument(document, "buffer of " + maxBufferedDocuments + " documents is full");
+        }
+    }
+
+    /**
+     * Give up a document which can't be kept, it's counted as suppressed. The first drop is reported
+     * by errorHandler, the number of drops is logged after documents are written again.
+     */
+    private void dropDocument(Document document, String reason) {
+        commitDocument(document);
+        final EventCounters counters = getEventCounters();
+        if (counters != null) {
+            final Object loggerName = document.get("loggerName");
+            final Object timestamp = document.get("timestamp");
+            counters.recordDropped(
+                    loggerName instanceof Document ? ((Document) loggerName).getString("fullyQualifiedClassName") : String.valueOf(loggerName),
+                    String.valueOf(document.get("level")),
+                    timestamp instanceof Date ? ((Date) timestamp).getTime() : System.currentTimeMillis());
+        }
+        if (droppedDocuments.getAndIncrement() == 0) {
+            errorHandler.error("Dropped document of appender " + getName() + " because " + reason
+                    + ", further drops are counted until writing recovers", null, ErrorCode.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Record a successful write, the circuit is closed and the drops of the outage are reported.
+     */
+    private void onWriteSuccess() {
+        if (circuitBreaker != null) {
+            circuitBreaker.recordSuccess();
+        }
+        if (droppedDocuments.get() > 0) {
+            final long dropped = droppedDocuments.getAndSet(0);
+            if (dropped > 0) {
+                LogLog.warn(dropped + " documents of appender " + getName() + " were dropped before writing recovered");
+            }
+        }
+    }
+
+    /**
+     * Append a document to the write-ahead log before writing it.
+     */
+    private void logDocument(Document document) {
+        if (writeAheadLog != null) {
+            final long ticket = writeAheadLog.append(document);
+            if (ticket >= 0) {
+                // Committed by background writers without the appender lock
+                synchronized (walTickets) {
+                    walTickets.put(document, ticket);
+                }
+                if (unprotectedDocuments.get() > 0) {
+                    final long unprotected = unprotectedDocuments.getAndSet(0);
+                    if (unprotected > 0) {
+                        LogLog.warn(unprotected + " documents of appender " + getName()
+                                + " were not protected by the write-ahead log while it was full");
+                    }
+                }
+            } else if (unprotectedDocuments.getAndIncrement() == 0) {
+                errorHandler.error("Document of appender " + getName() + " is not protected because write-ahead log "
+                        + walFile + " is full or the document is too large, further ones are counted until it has space",
+                        null, ErrorCode.WRITE_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * Truncate the write-ahead log after a document is stored, spilled or discarded.
+     */
+    private void commitDocument(Document document) {
+        final WriteAheadLog wal = writeAheadLog;
+        if (wal != null) {
+            final Long ticket;
+            synchronized (walTickets) {
+                ticket = walTickets.remove(document);
+            }
+            if (ticket != null) {
+                wal.commit(ticket);
+            }
+        }
+    }
+
+    /**
+     * Write documents spilled to local files in order while the circuit is closed, batch by batch.
+     * Batches are written without the appender lock, so appending is not blocked by replaying.
+     */
+    private void replaySpilled() {
+        final SpillStore store = spillStore;
+        if (store == null) {
+            return;
+        }
+        final List<Document> failed = Lists.newArrayList();
+        try {
+            while (!Thread.currentThread().isInterrupted() && failed.isEmpty()) {
+                if (!initialized || (circuitBreaker != null && !circuitBreaker.allowRequest())
+                        || store.replay(documents -> {
+                    insertDocuments(documents);
+                    failed.addAll(documents);
+                }, 1000) == 0) {
+                    return;
+                }
+                if (!failed.isEmpty()) {
+                    // Failed transiently, spill them again and retry later
+                    synchronized (this) {
+                        failed.forEach(this::bufferDocument);
+                    }
+                }
+            }
+        } catch (MongoException e) {
+            LogLog.warn("Failed to replay spilled documents", e);
+            if (circuitBreaker != null && circuitBreaker.recordFailure()) {
+                scheduleProbe();
+            }
+        }
+    }
+
+    /**
+     * Write logs of async levels in batches on the writer thread until the appender is closed.
+     */
+    private void runAsyncWriter(BlockingQueue<Document> queue) {
+        final List<Document> batch = Lists.newArrayList();
+        while (!shutdown) {
+            try {
+                final Document first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, 999);
+            writeAsyncBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write logs left in the queue of async levels, called while closing after the writer stopped.
+     */
+    private void flushAsyncQueue() {
+        final BlockingQueue<Document> queue = asyncQueue;
+        if (queue == null) {
+            return;
+        }
+        final List<Document> batch = Lists.newArrayList();
+        while (queue.drainTo(batch, 1000) > 0) {
+            writeAsyncBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Insert a batch of async logs without the appender lock, only the documents failed are buffered
+     * under the lock.
+     */
+    private void writeAsyncBatch(List<Document> batch) {
+        if (!initialized) {
+            // Closed, the write-ahead log keeps them if enabled
+            return;
+        }
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker == null || breaker.allowRequest()) {
+            final long start = System.nanoTime();
+            try {
+                insertDocuments(batch);
+                recordLatency(start);
+                onWriteSuccess();
+            } catch (MongoException e) {
+                recordLatency(start);
+                LogLog.warn("Failed to insert async documents to MongoDB", e);
+                if (breaker != null && breaker.recordFailure()) {
+                    scheduleProbe();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            synchronized (this) {
+                batch.forEach(this::bufferDocument);
+            }
+        }
+    }
+
+    private void scheduleProbe() {
+        try {
+            getControlScheduler().schedule(this::probe, circuitBreaker.getBackoffMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed, buffered documents are kept by the spill store or the write-ahead log if enabled
+        }
+    }
+
+    /**
+     * Check whether MongoDB is available again while the circuit is open, the buffer is written after
+     * the circuit is closed.
+     */
+    private void probe() {
+        final CircuitBreaker breaker = circuitBreaker;
+        if (!initialized || breaker == null || !breaker.tryProbe()) {
+            return;
+        }
+        try {
+            getDatabase(mongo, databaseName).runCommand(new Document("ping", 1));
+        } catch (MongoException e) {
+            breaker.recordFailure();
+            scheduleProbe();
+            return;
+        }
+        onWriteSuccess();
+        LogLog.warn("Circuit of appender " + getName() + " is closed");
+        // Written by the background jobs, the control loop doesn't wait for MongoDB
+        try {
+            if (spillStore != null) {
+                getScheduler().execute(this::replaySpilled);
+            }
+            getScheduler().execute(this::flushBuffer);
+        } catch (RejectedExecutionException e) {
+            // Closed, the spilled documents are replayed after activating again
+        }
+    }
+
+    /**
+     * Write the documents buffered while the circuit was open, called by scheduler after recovering.
+     */
+    private void flushBuffer() {
+        // Same lock as doAppend, so the buffer is not changed by appending
+        synchronized (this) {
+            if (initialized && !dataBuffer.isEmpty()) {
+                try {
+                    insertBuffer();
+                } catch (MongoException e) {
+                    LogLog.warn("Failed to insert buffered documents to MongoDB", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert logs buffered while writing failed, logs are grouped by level if collections are
+     * partitioned by level.
+     */
+    private void insertBuffer() {
+        try {
+            insertDocuments(dataBuffer);
+        } finally {
+            bufferedDocuments = dataBuffer.size();
+        }
+    }
+
+    /**
+     * Insert documents, grouped by level if collections are partitioned by level or levels have
+     * their own write concerns. Documents
+     * stored or rejected are removed from the list, so only the documents failed transiently are
+     * kept. The list is kept if a level failed entirely.
+     * <p>
+     * It may be called without the appender lock, only the collections are resolved under the lock
+     * and the documents are written outside of it.
+     */
+    private void insertDocuments(List<Document> documents) {
+        final Map<Level, List<Document>> levelBuffers = new LinkedHashMap<>();
+        if (!getCollectionNameTemplate().contains("__LEVEL_INFO__") && !hasLevelConcerns) {
+            levelBuffers.put(null, Lists.newArrayList(documents));
+        } else {
+            for (Document document : documents) {
+                levelBuffers.computeIfAbsent(Level.toLevel(document.getString("level")), level -> Lists.newArrayList())
+                        .add(document);
+            }
+        }
+        final Map<Level, MongoCollection<Document>> levelCollections = new HashMap<>();
+        synchronized (this) {
+            for (Level level : levelBuffers.keySet()) {
+                levelCollections.put(level, getCollection(level));
+            }
+        }
+        for (Map.Entry<Level, List<Document>> levelBuffer : levelBuffers.entrySet()) {
+            final Set<Document> handled = Collections.newSetFromMap(new IdentityHashMap<>());
+            handled.addAll(levelBuffer.getValue());
+            insertMany(levelCollections.get(levelBuffer.getKey()), levelBuffer.getValue()).forEach(handled::remove);
+            documents.removeIf(handled::contains);
+        }
+    }
+
+    /**
+     * Insert documents unordered for retrying, documents inserted by previous tries are skipped by
+     * their _id, and invalid documents are sent to dead letter collection.
+     *
+     * @return documents failed transiently
+     */
+    private List<Document> insertMany(MongoCollection<Document> collection, List<Document> documents) {
+        try {
+            collection.insertMany(documents, new InsertManyOptions().ordered(false));
+            documents.forEach(this::commitDocument);
+            return Collections.emptyList();
+        } catch (MongoBulkWriteException e) {
+            final BulkWriteFailures failures = new BulkWriteFailures(documents, e.getWriteErrors(),
+                    e.getWriteConcernError() != null);
+            failures.getCommitted().forEach(this::commitDocument);
+            for (Map.Entry<Document, BulkWriteError> rejected : failures.getRejected().entrySet()) {
+                deadLetter(rejected.getKey(), rejected.getValue().getCode(), rejected.getValue().getMessage());
+            }
+            return failures.getRetry();
+        } catch (BSONException | CodecConfigurationException e) {
+            if (documents.size() == 1) {
+                deadLetter(documents.get(0), -1, e.toString());
+                return Collections.emptyList();
+            }
+            // A document can't be encoded, insert one by one to find it instead of failing the batch
+            final List<Document> retry = Lists.newArrayList();
+            for (Document document : documents) {
+                retry.addAll(insertMany(collection, Collections.singletonList(document)));
+            }
+            return retry;
+        }
+    }
+
+    /**
+     * Keep an invalid document which will never be inserted in dead letter collection, with the error
+     * and the document as JSON.
+     */
+    private void deadLetter(Document document, int code, String error) {
+        commitDocument(document);
+        if (deadLetterCollectionName == null || deadLetterCollectionName.trim().isEmpty()) {
+            LogLog.warn("Discarded invalid document, error " + code + ": " + error);
+            return;
+        }
+        String json;
+        try {
+            json = document.toJson();
+        } catch (RuntimeException e) {
+            json = document.toString();
+        }
+        final Document letter = new Document("code", code)
+                .append("error", error)
+                .append("timestamp", new Date())
+                .append("level", document.get("level"))
+                .append("document", json.length() > MAX_DEAD_LETTER_JSON_LENGTH
+                        ? json.substring(0, MAX_DEAD_LETTER_JSON_LENGTH) : json);
+        try {
+            getDatabase(mongo, databaseName).getCollection(deadLetterCollectionName.trim()).insertOne(letter);
+        } catch (MongoException e) {
+            LogLog.warn("Failed to write dead letter to " + deadLetterCollectionName, e);
+        }
+    }
+
+    /*
+     * This method could be overridden to provide the DB instance from an existing connection.
+     */
+    protected MongoDatabase getDatabase(MongoClient mongo, String databaseName) {
+        return mongo.getDatabase(databaseName);
+    }
+
+    /*
+     * This method could be overridden to provide the Mongo instance from an existing connection.
+     */
+    protected MongoClient getMongo(List<ServerAddress> addresses) {
+        if (addresses.size() < 2) {
+            return new MongoClient(addresses.get(0), mongoClientOptions);
+        } else {
+            // Replica set
+            return new MongoClient(addresses, mongoClientOptions);
+        }
+    }
+
+    /**
+     * @return builder of client options with pool, timeout and compressor settings applied
+     */
+    protected MongoClientOptions.Builder getMongoClientOptionsBuilder() {
+        final MongoClientOptions.Builder builder = MongoClientOptions.builder()
+                .compressorList(getCompressorList());
+        if (connectionsPerHost > 0) {
+            builder.connectionsPerHost(connectionsPerHost);
+        }
+        if (minConnectionsPerHost >= 0) {
+            builder.minConnectionsPerHost(minConnectionsPerHost);
+        }
+        if (maxWaitTime >= 0) {
+            builder.maxWaitTime(maxWaitTime);
+        }
+        if (connectTimeout >= 0) {
+            builder.connectTimeout(connectTimeout);
+        }
+        if (socketTimeout >= 0) {
+            builder.socketTimeout(socketTimeout);
+        }
+        if (serverSelectionTimeout >= 0) {
+            builder.serverSelectionTimeout(serverSelectionTimeout);
+        }
+        if (heartbeatFrequency > 0) {
+            builder.heartbeatFrequency(heartbeatFrequency);
+        }
+        return builder;
+    }
+
+    /**
+     * MongoCompressor doesn't implement equals, so settings instead of options are used to tell if
+     * two appenders can share a client.
+     *
+     * @return the settings used to build client options
+     */
+    private List<Object> getMongoClientOptionsKey() {
+        return Arrays.asList(compressors, connectionsPerHost, minConnectionsPerHost, maxWaitTime,
+                connectTimeout, socketTimeout, serverSelectionTimeout, heartbeatFrequency);
+    }
+
+    /**
+     * @return compressors parsed from compressors setting, in format of "snappy", "zlib" or "zlib:level"
+     * split by ","
+     */
+    private List<MongoCompressor> getCompressorList() {
+        final List<MongoCompressor> compressorList = Lists.newArrayList();
+        if (compressors == null || compressors.trim().isEmpty() || "none".equalsIgnoreCase(compressors.trim())) {
+            return compressorList;
+        }
+        for (String compressor : compressors.split(",")) {
+            final String[] compressorDetail = compressor.trim().toLowerCase().split(":");
+            switch (compressorDetail[0]) {
+                case "snappy":
+                    compressorList.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                case "zlib":
+                    MongoCompressor zlib = MongoCompressor.createZlibCompressor();
+                    if (compressorDetail.length > 1) {
+                        zlib = zlib.withProperty(MongoCompressor.LEVEL, Integer.parseInt(compressorDetail[1]));
+                    }
+                    compressorList.add(zlib);
+                    break;
+                case "zstd":
+                    throw new RuntimeException("zstd compressor is not supported by the MongoDB driver in use, use snappy or zlib");
+                default:
+                    throw new RuntimeException("Invalid compressor " + compressor);
+            }
+        }
+        return compressorList;
+    }
+
+    /*
+     * This method could be overridden to provide the Mongo instance from an existing connection.
+     */
+    protected MongoClient getMongo(MongoClientURI uri) {
+        return new MongoClient(uri);
+    }
+
+    /**
+     * @param parameterType parameter type of the getMongo method used
+     * @return the class providing Mongo instance by getMongo, appenders share clients only if they
+     * create clients in the same way
+     */
+    private Class<?> getMongoFactoryClass(Class<?> parameterType) {
+        for (Class<?> clazz = getClass(); clazz != MongoDbAppender.class; clazz = clazz.getSuperclass()) {
+            try {
+                clazz.getDeclaredMethod("getMongo", parameterType);
+                return clazz;
+            } catch (NoSuchMethodException e) {
+                // Not overridden by this class
+            }
+        }
+        return MongoDbAppender.class;
+    }
+
+    private MongoClient getMongo(List<ServerAddress> addresses, MongoCredential credential, MongoClientOptions options) {
+        if (credential == null) {
+            return this.getMongo(addresses);
+        }
+
+        if (addresses.size() < 2) {
+            return new MongoClient(addresses.get(0), credential, options);
+        } else {
+            // Replica set
+            return new MongoClient(addresses, credential, options);
+        }
+    }
+
+    /**
+     * Note: this method is primarily intended for use by the unit tests.
+     *
+     * @param collection The MongoDB collection to use when logging events.
+     */
+    public void setCollection(final MongoCollection<Document> collection) {
+        if (collection == null) throw new RuntimeException("collection must not be null");
+        collections.put(collection.getNamespace().getCollectionName(), collection);
+        concernCollections.clear();
+    }
+
+    /**
+     * @return The hostname of the MongoDB server <i>(will not be null, empty or blank)</i>.
+     */
+    public String getHostname() {
+        return hostname;
+    }
+
+    /**
+     * @param hostname The MongoDB hostname to set <i>(must not be null, empty or blank)</i>.
+     */
+    public void setHostname(final String hostname) {
+        if (hostname == null) throw new RuntimeException("hostname must not be null");
+        if (hostname.trim().length() <= 0) throw new RuntimeException("hostname must not be empty or blank");
+        this.hostname = hostname;
+    }
+
+    /**
+     * @return The port of the MongoDB server <i>(will be greater than 0)</i>.
+     */
+    public String getPort() {
+        return port;
+    }
+
+    /**
+     * @param port The port to set <i>(must not be null, empty or blank)</i>.
+     */
+    public void setPort(final String port) {
+        if (port == null) throw new RuntimeException("port must not be null");
+        if (port.trim().length() <= 0) throw new RuntimeException("port must not be empty or blank");
+
+        this.port = port;
+    }
+
+    /**
+     * @return The database used in the MongoDB server <i>(will not be null, empty or blank)</i>.
+     */
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    /**
+     * @param databaseName The database to use in the MongoDB server <i>(must not be null, empty or
+     *                     blank)</i>.
+     */
+    public void setDatabaseName(final String databaseName) {
+        if (databaseName == null) throw new RuntimeException("database must not be null");
+        if (databaseName.trim().length() <= 0) throw new RuntimeException("database must not be empty or blank");
+
+        this.databaseName = databaseName;
+    }
+
+    /**
+     * @param collectionName The collection used within the database in the MongoDB server <i>(must not be
+     *                       null, empty or blank)</i>.
+     */
+    public void setCollectionName(final String collectionName) {
+        if (collectionName == null) throw new RuntimeException("collection must not be null");
+        if (collectionName.trim().length() <= 0) throw new RuntimeException("collection must not be empty or blank");
+
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * @return The connection string URI of MongoDB <i>(may be null)</i>.
+     */
+    public String getConnectionString() {
+        return connectionString;
+    }
+
+    /**
+     * @param connectionString The mongodb:// or mongodb+srv:// connection string URI, hostname, port, userName,
+     *                         password and authorizeDB are ignored if it's set <i>(may be null)</i>.
+     */
+    public void setConnectionString(final String connectionString) {
+        this.connectionString = connectionString;
+    }
+
+    /**
+     * @return The userName used to authenticate with MongoDB <i>(may be null)</i>.
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * @param userName The userName to use when authenticating with MongoDB <i>(may be null)</i>.
+     */
+    public void setUserName(final String userName) {
+        this.userName = userName;
+    }
+
+    /**
+     * @param password The password to use when authenticating with MongoDB <i>(may be null)</i>.
+     */
+    public void setPassword(final String password) {
+        this.password = password;
+    }
+
+    /**
+     * @return the writeConcern setting for Mongo.
+     */
+    public String getWriteConcern() {
+        return writeConcern;
+    }
+
+    /**
+     * @param writeConcern The WriteConcern setting for Mongo.<i>(may be null). If null, set to default of
+     *                     dbCollection's writeConcern.</i>
+     */
+    public void setWriteConcern(final String writeConcern) {
+        this.writeConcern = writeConcern;
+        concern = parseWriteConcern(writeConcern);
+    }
+
+    /**
+     * @param writeConcern write concern name such as "majority" or "w1", or the number of nodes, optionally
+     *                     followed by "," and wtimeout in milliseconds
+     * @return write concern
+     */
+    static WriteConcern parseWriteConcern(String writeConcern) {
+        String[] writeConcernConfig = writeConcern.trim().split(",");
+        final WriteConcern result;
+        if (writeConcernConfig.length == 1 || writeConcernConfig.length == 2) {
+            final String name = writeConcernConfig[0].trim();
+            if (name.matches("\\d+")) {
+                result = new WriteConcern(Integer.parseInt(name));
+            } else {
+                result = WriteConcern.valueOf(name);
+            }
+            if (result == null) {
+                throw new RuntimeException("Invalid write concern setting " + writeConcern);
+            }
+        } else {
+            throw new RuntimeException("Invalid write concern setting " + writeConcern);
+        }
+        if (writeConcernConfig.length == 2) {
+            return result.withWTimeout(Long.parseLong(writeConcernConfig[1].trim()), TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    public String getLevelWriteConcern() {
+        return levelWriteConcern;
+    }
+
+    /**
+     * @param levelWriteConcern Write concerns of levels split by ";" in format of level=writeConcern, such as
+     *                          "ERROR=majority,1000;FATAL=majority;DEBUG=0", levels not set use writeConcern
+     *                          <i>(may be null)</i>.
+     */
+    public void setLevelWriteConcern(String levelWriteConcern) {
+        Arrays.fill(levelConcerns, null);
+        hasLevelConcerns = false;
+        this.levelWriteConcern = levelWriteConcern;
+        if (levelWriteConcern == null || levelWriteConcern.trim().isEmpty()) {
+            return;
+        }
+        for (String setting : levelWriteConcern.split(";")) {
+            final String[] levelConcern = setting.split("=");
+            final int levelIndex = levelConcern.length == 2 ? getLevelIndex(Level.toLevel(levelConcern[0].trim(), Level.OFF)) : -1;
+            if (levelIndex < 0) {
+                throw new RuntimeException("Invalid level write concern setting " + setting);
+            }
+            levelConcerns[levelIndex] = parseWriteConcern(levelConcern[1]);
+            hasLevelConcerns = true;
+        }
+    }
+
+    public String getAsyncLevels() {
+        return asyncLevels;
+    }
+
+    /**
+     * @param asyncLevels Levels written in background batches split by ",", such as "TRACE,DEBUG", appending
+     *                    logs of them never waits for MongoDB <i>(may be null)</i>.
+     */
+    public void setAsyncLevels(String asyncLevels) {
+        Arrays.fill(asyncLevelFlags, false);
+        this.asyncLevels = asyncLevels;
+        if (asyncLevels == null || asyncLevels.trim().isEmpty()) {
+            return;
+        }
+        for (String level : asyncLevels.split(",")) {
+            final int levelIndex = getLevelIndex(Level.toLevel(level.trim(), Level.OFF));
+            if (levelIndex < 0) {
+                throw new RuntimeException("Invalid async level " + level);
+            }
+            asyncLevelFlags[levelIndex] = true;
+        }
+    }
+
+    /**
+     * @return write concern set for a level, or null if the level uses writeConcern
+     */
+    WriteConcern getLevelConcern(Level level) {
+        final int levelIndex = getLevelIndex(level);
+        return levelIndex >= 0 ? levelConcerns[levelIndex] : null;
+    }
+
+    /**
+     * @return true if logs of the level are written in background batches
+     */
+    boolean isAsyncLevel(Level level) {
+        final int levelIndex = getLevelIndex(level);
+        return levelIndex >= 0 && asyncLevelFlags[levelIndex];
+    }
+
+    public int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+    /**
+     * @param asyncQueueSize Max logs of async levels waiting to be written, newer logs are discarded if the
+     *                       queue is full <i>(must be positive)</i>.
+     */
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        if (asyncQueueSize <= 0) throw new RuntimeException("asyncQueueSize must be positive");
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+    public WriteConcern getConcern() {
+        if (concern == null) {
+            concern = getCollection().getWriteConcern();
+        }
+        return concern;
+    }
+
+
+    /**
+     * Returns true if appender was successfully initialized. If this method returns false, the
+     * appender should not attempt to log events.
+     *
+     * @return true if appender was successfully initialized
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Create the collections of current and next period ahead, called by scheduler.
+     */
+    private void prepareCollections() {
+        try {
+            final long now = System.currentTimeMillis();
+            final MongoDatabase db = getDatabase(mongo, databaseName);
+            for (String name : getCollectionNames(new Date(now))) {
+                ensureCollection(db, name);
+            }
+            for (String name : getCollectionNames(new Date(now + collectionPrepareAheadSeconds * 1000L))) {
+                ensureCollection(db, name);
+            }
+        } catch (Exception e) {
+            LogLog.warn("Failed to prepare collections for MongoDbAppender " + getName(), e);
+        }
+    }
+
+    /**
+     * Forget collections of closed periods, so the cache doesn't grow with every period of a
+     * long running JVM.
+     *
+     * @param now current time in milliseconds
+     */
+    private void pruneVerifiedCollections(long now) {
+        final Set<String> current = Sets.newHashSet(getCollectionNames(new Date(now)));
+        current.addAll(getCollectionNames(new Date(now + collectionPrepareAheadSeconds * 1000L)));
+        if (rollupCollectionName != null) {
+            current.add(rollupCollectionName);
+        }
+        verifiedCollections.retainAll(current);
+    }
+
+    /**
+     * Make sure the collection exists with all indexes, the result is cached so every collection
+     * will be checked only once.
+     *
+     * @param db   database of the collection
+     * @param name collection name
+     */
+    protected void ensureCollection(MongoDatabase db, String name) {
+        if (verifiedCollections.contains(name)) {
+            return;
+        }
+        if (db.listCollections().filter(Filters.eq("name", name)).first() == null) {
+            createCollection(db, name);
+        } else if (isLevelTimeoutIndexEnabled()) {
+            // Apply changed timeoutMills to existing collection
+            ensureLevelTimeoutIndexes(db.getCollection(name));
+        }
+        verifiedCollections.add(name);
+    }
+
+    /**
+     * Create the collection and its indexes.
+     *
+     * @param db   database of the collection
+     * @param name collection name
+     */
+    protected void createCollection(MongoDatabase db, String name) {
+        if (COLLECTION_TYPE_TIME_SERIES.equals(collectionType)) {
+            createTimeSeriesCollection(db, name);
+        } else if (COLLECTION_TYPE_CAPPED.equals(collectionType)) {
+            createCappedCollection(db, name);
+        }
+        MongoCollection<Document> coll = db.getCollection(name);
+        createTimeoutIndexes(coll);
+        if (!deferIndexBuild) {
+            createIndexes(coll);
+        }
+        if (shardKeys != null) {
+            shardCollection(db, name);
+        }
+    }
+
+    /**
+     * Create TTL indexes by retentionMode on the collection.
+     *
+     * @param coll the collection to create indexes on
+     */
+    protected void createTimeoutIndexes(MongoCollection<Document> coll) {
+        if (isDocumentTimeoutEnabled()) {
+            coll.createIndex(new Document("log_timeout", 1), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+        } else if (isLevelTimeoutIndexEnabled()) {
+            ensureLevelTimeoutIndexes(coll);
+        }
+    }
+
+    /**
+     * Create indexes in indexSetting on the collection.
+     *
+     * @param coll the collection to create indexes on
+     */
+    protected void createIndexes(MongoCollection<Document> coll) {
+        final boolean timeSeries = COLLECTION_TYPE_TIME_SERIES.equals(collectionType);
+        for (IndexDefinition index : indexDefinitions) {
+            if (timeSeries && !index.isSupportedByTimeSeries()) {
+                // Warned while activating
+                continue;
+            }
+            try {
+                coll.createIndex(index.getKeys(), index.getOptions());
+            } catch (MongoException ex) {
+                LogLog.warn("Failed to create index " + index + " on collection " + coll.getNamespace(), ex);
+            }
+        }
+    }
+
+    /**
+     * Called after the appender switched to a new collection of the next period, no more logs will
+     * be written to the previous one. The jobs run in background with random delay so that all JVMs
+     * won't run them at the same time.
+     *
+     * @param db   database of the collection
+     * @param name name of the previous collection
+     */
+    protected void onCollectionClosed(MongoDatabase db, String name) {
+        if (shutdown) {
+            // Closing, the indexes are built for the previous period after activating again
+            return;
+        }
+        if (deferIndexBuild) {
+            getScheduler().schedule(() -> {
+                try {
+                    createIndexes(db.getCollection(name));
+                } catch (Exception e) {
+                    LogLog.warn("Failed to build deferred indexes on collection " + name, e);
+                }
+            }, ThreadLocalRandom.current().nextLong(60000), TimeUnit.MILLISECONDS);
+        }
+        if (rollupCollectionName != null && rollupCollectionName.trim().length() > 0) {
+            getMaintenanceScheduler().schedule(() -> {
+                try {
+                    createRollup(db, name);
+                } catch (Exception e) {
+                    LogLog.warn("Failed to create rollup of collection " + name, e);
+                }
+            }, ThreadLocalRandom.current().nextLong(60000), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Build the deferred indexes of the previous period's collections if they exist, indexes already
+     * built are not changed, called by scheduler after activating.
+     */
+    private void buildPreviousPeriodIndexes() {
+        try {
+            final MongoDatabase db = getDatabase(mongo, databaseName);
+            for (String name : getCollectionNames(getPreviousPeriod(new Date()))) {
+                if (db.listCollections().filter(Filters.eq("name", name)).first() != null) {
+                    createIndexes(db.getCollection(name));
+                }
+            }
+        } catch (Exception e) {
+            LogLog.warn("Failed to build deferred indexes of previous period for MongoDbAppender " + getName(), e);
+        }
+    }
+
+    /**
+     * @param time current time
+     * @return a time in the previous period of the smallest time macro in the collection name template
+     */
+    private Date getPreviousPeriod(Date time) {
+        final String template = getCollectionNameTemplate();
+        final ZonedDateTime zoned = time.toInstant().atZone(ZoneId.systemDefault());
+        if (template.contains("__HOUR_INFO__")) {
+            return Date.from(zoned.minusHours(1).toInstant());
+        }
+        if (template.contains("__DAY_INFO__")) {
+            return Date.from(zoned.minusDays(1).toInstant());
+        }
+        return Date.from(zoned.minusMonths(1).toInstant());
+    }
+
+    /**
+     * Count logs of the closed collection by minute, level, logger and host, then merge the counts
+     * into rollup collection (MongoDB 4.2 or newer). The collection is claimed by a lease first, so
+     * only one JVM aggregates it, the counts are replaced if it's run again anyway.
+     *
+     * @param db   database of the collection
+     * @param name name of the closed collection
+     */
+    protected void createRollup(MongoDatabase db, String name) {
+        if (rollupLease == null) {
+            // Held until all JVMs have passed the rollover
+            rollupLease = new PartitionLease(db, TimeUnit.HOURS.toMillis(1));
+        }
+        if (!rollupLease.claim("rollup", name, System.currentTimeMillis())) {
+            return;
+        }
+        final Document minute = new Document("$dateFromParts", new Document("year", new Document("$year", "$timestamp"))
+                .append("month", new Document("$month", "$timestamp"))
+                .append("day", new Document("$dayOfMonth", "$timestamp"))
+                .append("hour", new Document("$hour", "$timestamp"))
+                .append("minute", new Document("$minute", "$timestamp")));
+        final List<Document> pipeline = Lists.newArrayList(
+                new Document("$group", new Document("_id", new Document("collection", name)
+                        .append("minute", minute)
+                        .append("level", "$level")
+                        .append("logger", "$loggerName.fullyQualifiedClassName")
+                        .append("host", "$host.name"))
+                        .append("count", new Document("$sum", 1))),
+                new Document("$project", new Document("_id", 1)
+                        .append("count", 1)
+                        .append("minute", "$_id.minute")
+                        .append("level", "$_id.level")
+                        .append("logger", "$_id.logger")
+                        .append("host", "$_id.host")),
+                new Document("$merge", new Document("into", rollupCollectionName)
+                        .append("on", "_id")
+                        .append("whenMatched", "replace")
+                        .append("whenNotMatched", "insert"))
+        );
+        db.runCommand(new Document("aggregate", name)
+                .append("pipeline", pipeline)
+                .append("allowDiskUse", true)
+                .append("cursor", new Document()));
+        if (!verifiedCollections.contains(rollupCollectionName)) {
+            db.getCollection(rollupCollectionName).createIndex(new Document("minute", 1));
+            verifiedCollections.add(rollupCollectionName);
+        }
+    }
+
+    /**
+     * Shard the newly created collection by shardKey, the appender should be connected to mongos.
+     * The chunks are pre-split across shards while shardInitialChunks is set and the shard key is
+     * hashed, so the writes are spread from the first log of the period.
+     *
+     * @param db   database of the collection
+     * @param name collection name
+     */
+    protected void shardCollection(MongoDatabase db, String name) {
+        final MongoDatabase admin = getDatabase(mongo, "admin");
+        try {
+            if (!shardingEnabled) {
+                try {
+                    admin.runCommand(new Document("enableSharding", db.getName()));
+                } catch (MongoCommandException ex) {
+                    // Old servers reply AlreadyInitialized if sharding was enabled before
+                    if (ex.getErrorCode() != 23) {
+                        throw ex;
+                    }
+                }
+                shardingEnabled = true;
+            }
+            admin.runCommand(getShardCollectionCommand(db.getName() + "." + name, shardKeys, shardInitialChunks));
+        } catch (MongoException ex) {
+            LogLog.warn("Failed to shard collection " + name + " by " + shardKey, ex);
+        }
+    }
+
+    /**
+     * @param namespace     database and collection name
+     * @param keys          shard key
+     * @param initialChunks chunks pre-split, 0 to let server decide
+     * @return command sharding the collection, numInitialChunks is dropped for range shard key
+     */
+    static Document getShardCollectionCommand(String namespace, Document keys, int initialChunks) {
+        final Document command = new Document("shardCollection", namespace).append("key", keys);
+        // Initial chunks can only be created for hashed shard key on empty collection
+        if (initialChunks > 0 && keys.containsValue("hashed")) {
+            command.append("numInitialChunks", initialChunks);
+        }
+        return command;
+    }
+
+    /**
+     * Create a native time series collection using timestamp as time field, expiration is set
+     * on the collection instead of a TTL index (requires MongoDB 5.0 or newer).
+     *
+     * @param db   database of the collection
+     * @param name collection name
+     */
+    protected void createTimeSeriesCollection(MongoDatabase db, String name) {
+        try {
+            db.runCommand(getTimeSeriesCreateCommand(name));
+        } catch (MongoCommandException ex) {
+            // Created by another JVM or the scheduler in the meantime
+            if (ex.getErrorCode() != NAMESPACE_EXISTS) {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * @param name collection name
+     * @return command creating the time series collection
+     */
+    Document getTimeSeriesCreateCommand(String name) {
+        final Document timeSeries = new Document("timeField", "timestamp")
+                .append("granularity", timeSeriesGranularity);
+        if (timeSeriesMetaField != null && timeSeriesMetaField.trim().length() > 0) {
+            timeSeries.append("metaField", timeSeriesMetaField);
+        }
+        long expireAfterSeconds = timeSeriesExpireAfterSeconds;
+        if (expireAfterSeconds <= 0) {
+            // Time series collection has only one expiration, keep the logs as long as the longest level
+            expireAfterSeconds = Arrays.stream(timeoutSetting).max().orElse(0L) / 1000L;
+        }
+        return new Document("create", name)
+                .append("timeseries", timeSeries)
+                .append("expireAfterSeconds", expireAfterSeconds);
+    }
+
+    /**
+     * Create a capped collection, the oldest logs are overwritten after size or document count
+     * limit reached, so neither log_timeout field nor TTL index is needed.
+     *
+     * @param db   database of the collection
+     * @param name collection name
+     */
+    protected void createCappedCollection(MongoDatabase db, String name) {
+        final CreateCollectionOptions options = new CreateCollectionOptions()
+                .capped(true)
+                .sizeInBytes(cappedSizeBytes);
+        if (cappedMaxDocuments > 0) {
+            options.maxDocuments(cappedMaxDocuments);
+        }
+        try {
+            db.createCollection(name, options);
+        } catch (MongoCommandException ex) {
+            // Created by another JVM or the scheduler in the meantime
+            if (ex.getErrorCode() != NAMESPACE_EXISTS) {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Create a partial TTL index on timestamp for every level, or change its expiration by collMod
+     * if timeoutMills changed. It requires MongoDB 5.0 or newer to create indexes of the same key
+     * with different partial filters.
+     *
+     * @param coll the collection to create indexes on
+     */
+    protected void ensureLevelTimeoutIndexes(MongoCollection<Document> coll) {
+        final Map<String, Document> existing = new HashMap<>();
+        for (Document index : coll.listIndexes()) {
+            existing.put(index.getString("name"), index);
+        }
+        for (int i = 0; i < LEVELS.length; i++) {
+            final String indexName = LEVEL_TIMEOUT_INDEX_PREFIX + LEVELS[i].toString().toLowerCase();
+            final long expireAfterSeconds = timeoutSetting[i] / 1000L;
+            final Document index = existing.get(indexName);
+            if (index == null) {
+                coll.createIndex(new Document("timestamp", 1), new IndexOptions()
+                        .name(indexName)
+                        .expireAfter(expireAfterSeconds, TimeUnit.SECONDS)
+                        .partialFilterExpression(new Document("level", LEVELS[i].toString())));
+            } else if (!(index.get("expireAfterSeconds") instanceof Number)
+                    || ((Number) index.get("expireAfterSeconds")).longValue() != expireAfterSeconds) {
+                getDatabase(mongo, databaseName).runCommand(new Document("collMod", coll.getNamespace().getCollectionName())
+                        .append("index", new Document("name", indexName)
+                                .append("expireAfterSeconds", expireAfterSeconds)));
+            }
+        }
+    }
+
+    /**
+     * @return true if expiration is done by log_timeout field and TTL index on it
+     */
+    protected boolean isDocumentTimeoutEnabled() {
+        return COLLECTION_TYPE_NORMAL.equals(collectionType) && RETENTION_MODE_DOCUMENT.equals(retentionMode);
+    }
+
+    /**
+     * @return true if expiration is done by partial TTL indexes of every level on timestamp
+     */
+    protected boolean isLevelTimeoutIndexEnabled() {
+        return COLLECTION_TYPE_NORMAL.equals(collectionType) && RETENTION_MODE_PARTIAL_INDEX.equals(retentionMode);
+    }
+
+    /**
+     * Drop partitions which all logs in them are expired, called by scheduler.
+     */
+    private void dropExpiredCollections() {
+        try {
+            final MongoDatabase db = getDatabase(mongo, databaseName);
+            final List<String> names = Lists.newArrayList(db.listCollectionNames());
+            for (PartitionRetentionManager retentionManager : retentionManagers) {
+                for (String name : retentionManager.findExpired(names, System.currentTimeMillis(), timeoutSetting)) {
+                    db.getCollection(name).drop();
+                    verifiedCollections.remove(name);
+                }
+            }
+        } catch (Exception e) {
+            LogLog.warn("Failed to drop expired collections for MongoDbAppender " + getName(), e);
+        }
+    }
+
+    /**
+     * Write event counts into metrics collection by $inc, called by scheduler. The counts are added
+     * back to counters if writing failed.
+     */
+    private void flushEventCounters() {
+        final List<Document> documents = Lists.newArrayList();
+        for (Document document = metricDocuments.poll(); document != null; document = metricDocuments.poll()) {
+            documents.add(document);
+        }
+        if (!documents.isEmpty()) {
+            try {
+                getDatabase(mongo, databaseName).getCollection(metricsCollectionName).insertMany(documents);
+            } catch (MongoException e) {
+                LogLog.warn("Failed to record shedding decisions for MongoDbAppender " + getName(), e);
+            }
+        }
+        final EventCounters counters = getEventCounters();
+        final List<Map.Entry<EventCounters.Key, long[]>> counts = Lists.newArrayList(
+                counters.drain(System.currentTimeMillis()).entrySet());
+        if (counts.isEmpty()) {
+            return;
+        }
+        final List<UpdateOneModel<Document>> updates = Lists.newArrayList();
+        for (Map.Entry<EventCounters.Key, long[]> count : counts) {
+            final EventCounters.Key key = count.getKey();
+            final Date minute = new Date(key.getMinute());
+            updates.add(new UpdateOneModel<>(
+                    new Document("_id", new Document("logger", key.getLoggerName())
+                            .append("level", key.getLevel())
+                            .append("minute", minute)),
+                    new Document("$inc", new Document("count", count.getValue()[0])
+                            .append("suppressed", count.getValue()[1]))
+                            .append("$setOnInsert", new Document("logger", key.getLoggerName())
+                                    .append("level", key.getLevel())
+                                    .append("minute", minute)),
+                    new UpdateOptions().upsert(true)
+            ));
+        }
+        try {
+            getDatabase(mongo, databaseName).getCollection(metricsCollectionName)
+                    .bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                final Map.Entry<EventCounters.Key, long[]> count = counts.get(error.getIndex());
+                counters.add(count.getKey(), count.getValue()[0], count.getValue()[1]);
+            }
+            LogLog.warn("Failed to write event counts for MongoDbAppender " + getName(), e);
+        } catch (Exception e) {
+            for (Map.Entry<EventCounters.Key, long[]> count : counts) {
+                counters.add(count.getKey(), count.getValue()[0], count.getValue()[1]);
+            }
+            LogLog.warn("Failed to write event counts for MongoDbAppender " + getName(), e);
+        }
+    }
+
+    /**
+     * Merge closed hourly collections into daily ones, called by scheduler.
+     */
+    private void compactCollections() {
+        try {
+            for (String name : compactor.compact(System.currentTimeMillis(), TimeUnit.MINUTES.toMillis(compactionDelayMinutes))) {
+                verifiedCollections.remove(name);
+            }
+        } catch (Exception e) {
+            LogLog.warn("Failed to compact collections for MongoDbAppender " + getName(), e);
+        }
+    }
+
+    /**
+     * @return The MongoDB collection to which events are logged.
+     */
+    protected MongoCollection<Document> getCollection() {
+        return getCollection(null);
+    }
+
+    /**
+     * @param level level of the log, used if the template contains __LEVEL_INFO__ <i>(may be null)</i>
+     * @return The MongoDB collection to which events are logged.
+     */
+    protected MongoCollection<Document> getCollection(Level level) {
+        final Date now = new Date();
+        final MongoDatabase db = getDatabase(mongo, databaseName);
+        // Name without level changes only while the period changes
+        final String periodName = getCollectionName(now, null);
+        if (!lastCollectionName.equals(periodName)) {
+            if (!lastCollectionName.isEmpty()) {
+                for (String closedName : collections.keySet()) {
+                    onCollectionClosed(db, closedName);
+                }
+                collections.clear();
+                concernCollections.clear();
+                pruneVerifiedCollections(now.getTime());
+            }
+            lastCollectionName = periodName;
+        }
+        final String currentName = getCollectionName(now, level);
+        MongoCollection<Document> collection = collections.get(currentName);
+        if (collection == null) {
+            ensureCollection(db, currentName);
+            collection = db.getCollection(currentName);
+            collections.put(currentName, collection);
+        }
+        final int levelIndex = level == null ? -1 : getLevelIndex(level);
+        final WriteConcern writeConcern = levelIndex >= 0 && levelConcerns[levelIndex] != null
+                ? levelConcerns[levelIndex] : concern;
+        if (writeConcern == null) {
+            return collection;
+        }
+        final MongoCollection<Document> base = collection;
+        return concernCollections.computeIfAbsent(Arrays.asList(currentName, writeConcern),
+                key -> base.withWriteConcern(writeConcern));
+    }
+
+    /**
+     * Returns a List of ServerAddress objects for each host specified in the hostname property.
      * Returns an empty list if configuration is detected to be invalid, e.g.:
      * <ul>
      * <li>Port property doesn't contain either one port or one port per host</li>
@@ -498,6 +2341,472 @@ public class MongoDbAppender extends BsonAppender {
     }
 
 
+    public String getCollectionType() {
+        return collectionType;
+    }
+
+    /**
+     * @param collectionType Type of collection created by the appender, "normal", "timeseries" or "capped".
+     */
+    public void setCollectionType(String collectionType) {
+        if (collectionType == null) throw new RuntimeException("collectionType must not be null");
+        final String type = collectionType.trim().toLowerCase();
+        if (!COLLECTION_TYPE_NORMAL.equals(type) && !COLLECTION_TYPE_TIME_SERIES.equals(type)
+                && !COLLECTION_TYPE_CAPPED.equals(type)) {
+            throw new RuntimeException("Invalid collection type " + collectionType);
+        }
+        this.collectionType = type;
+    }
+
+    public String getRetentionMode() {
+        return retentionMode;
+    }
+
+    /**
+     * @param retentionMode How logs expire by timeoutMills, "document" to set log_timeout field on every log
+     *                      with a TTL index, "partialIndex" to create a partial TTL index on timestamp for
+     *                      every level, "dropCollection" to drop whole time partitioned collections.
+     */
+    public void setRetentionMode(String retentionMode) {
+        if (retentionMode == null) throw new RuntimeException("retentionMode must not be null");
+        final String mode = retentionMode.trim().toLowerCase();
+        if (!RETENTION_MODE_DOCUMENT.equals(mode) && !RETENTION_MODE_PARTIAL_INDEX.equals(mode)
+                && !RETENTION_MODE_DROP_COLLECTION.equals(mode)) {
+            throw new RuntimeException("Invalid retention mode " + retentionMode);
+        }
+        this.retentionMode = mode;
+    }
+
+    public String getTimeSeriesMetaField() {
+        return timeSeriesMetaField;
+    }
+
+    /**
+     * @param timeSeriesMetaField Field used as metaField of time series collection, such as host, loggerName
+     *                            or level <i>(may be empty for no metaField)</i>.
+     */
+    public void setTimeSeriesMetaField(String timeSeriesMetaField) {
+        this.timeSeriesMetaField = timeSeriesMetaField;
+    }
+
+    public String getTimeSeriesGranularity() {
+        return timeSeriesGranularity;
+    }
+
+    /**
+     * @param timeSeriesGranularity Granularity of time series collection: seconds, minutes or hours.
+     */
+    public void setTimeSeriesGranularity(String timeSeriesGranularity) {
+        if (timeSeriesGranularity == null) throw new RuntimeException("timeSeriesGranularity must not be null");
+        this.timeSeriesGranularity = timeSeriesGranularity.trim().toLowerCase();
+    }
+
+    public long getTimeSeriesExpireAfterSeconds() {
+        return timeSeriesExpireAfterSeconds;
+    }
+
+    /**
+     * @param timeSeriesExpireAfterSeconds Expiration of time series collection, 0 to use the longest
+     *                                     one in timeoutMills.
+     */
+    public void setTimeSeriesExpireAfterSeconds(long timeSeriesExpireAfterSeconds) {
+        this.timeSeriesExpireAfterSeconds = timeSeriesExpireAfterSeconds;
+    }
+
+    public long getCappedSizeBytes() {
+        return cappedSizeBytes;
+    }
+
+    /**
+     * @param cappedSizeBytes Max size of capped collection in bytes <i>(must be positive)</i>.
+     */
+    public void setCappedSizeBytes(long cappedSizeBytes) {
+        if (cappedSizeBytes <= 0) throw new RuntimeException("cappedSizeBytes must be positive");
+        this.cappedSizeBytes = cappedSizeBytes;
+    }
+
+    public long getCappedMaxDocuments() {
+        return cappedMaxDocuments;
+    }
+
+    /**
+     * @param cappedMaxDocuments Max documents count of capped collection, 0 for no limit.
+     */
+    public void setCappedMaxDocuments(long cappedMaxDocuments) {
+        this.cappedMaxDocuments = cappedMaxDocuments;
+    }
+
+    public boolean isDeferIndexBuild() {
+        return deferIndexBuild;
+    }
+
+    /**
+     * @param deferIndexBuild If true, the collection being written has only _id and TTL index, indexes in
+     *                        indexSetting are built in background after switching to the next collection,
+     *                        the collection name must contain a time macro.
+     */
+    public void setDeferIndexBuild(boolean deferIndexBuild) {
+        this.deferIndexBuild = deferIndexBuild;
+    }
+
+    public String getRollupCollectionName() {
+        return rollupCollectionName;
+    }
+
+    /**
+     * @param rollupCollectionName Collection of log counts per minute, level, logger and host, counted after
+     *                             a time partitioned collection closed <i>(may be null for not counting)</i>.
+     */
+    public void setRollupCollectionName(String rollupCollectionName) {
+        this.rollupCollectionName = rollupCollectionName;
+    }
+
+    public String getCompressors() {
+        return compressors;
+    }
+
+    /**
+     * @param compressors Compressors used in order of preference, split by ",": "snappy", "zlib" or
+     *                    "zlib:level" (level in -1~9), "none" for no compression.
+     */
+    public void setCompressors(String compressors) {
+        this.compressors = compressors;
+    }
+
+    public int getConnectionsPerHost() {
+        return connectionsPerHost;
+    }
+
+    /**
+     * @param connectionsPerHost Max size of connection pool per server, negative for driver's default.
+     */
+    public void setConnectionsPerHost(int connectionsPerHost) {
+        this.connectionsPerHost = connectionsPerHost;
+    }
+
+    public int getMinConnectionsPerHost() {
+        return minConnectionsPerHost;
+    }
+
+    /**
+     * @param minConnectionsPerHost Min size of connection pool per server, negative for driver's default.
+     */
+    public void setMinConnectionsPerHost(int minConnectionsPerHost) {
+        this.minConnectionsPerHost = minConnectionsPerHost;
+    }
+
+    public int getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * @param maxWaitTime Max milliseconds waiting for a connection from pool, negative for driver's default.
+     */
+    public void setMaxWaitTime(int maxWaitTime) {
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout Connect timeout in milliseconds, 0 for no timeout, negative for driver's default.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * @param socketTimeout Socket read timeout in milliseconds, 0 for no timeout, negative for driver's default.
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public int getServerSelectionTimeout() {
+        return serverSelectionTimeout;
+    }
+
+    /**
+     * @param serverSelectionTimeout Milliseconds waiting for an available server, negative for driver's default.
+     */
+    public void setServerSelectionTimeout(int serverSelectionTimeout) {
+        this.serverSelectionTimeout = serverSelectionTimeout;
+    }
+
+    public int getHeartbeatFrequency() {
+        return heartbeatFrequency;
+    }
+
+    /**
+     * @param heartbeatFrequency Milliseconds between server heartbeats, negative for driver's default.
+     */
+    public void setHeartbeatFrequency(int heartbeatFrequency) {
+        this.heartbeatFrequency = heartbeatFrequency;
+    }
+
+    public boolean isShareMongoClient() {
+        return shareMongoClient;
+    }
+
+    /**
+     * @param shareMongoClient If true, appenders with the same hosts and credential in the JVM share one
+     *                         MongoClient, it's closed after all of them closed.
+     */
+    public void setShareMongoClient(boolean shareMongoClient) {
+        this.shareMongoClient = shareMongoClient;
+    }
+
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    /**
+     * @param circuitBreakerFailures Consecutive write failures to stop writing until MongoDB is available
+     *                               again, 0 (default) to disable the circuit breaker <i>(must not be negative)</i>.
+     */
+    public void setCircuitBreakerFailures(int circuitBreakerFailures) {
+        if (circuitBreakerFailures < 0) throw new RuntimeException("circuitBreakerFailures must not be negative");
+        this.circuitBreakerFailures = circuitBreakerFailures;
+    }
+
+    public long getCircuitBreakerMaxBackoffMillis() {
+        return circuitBreakerMaxBackoffMillis;
+    }
+
+    /**
+     * @param circuitBreakerMaxBackoffMillis Max interval of checking MongoDB while the circuit is open, the
+     *                                       interval starts from 1 second and doubles after every failed
+     *                                       check <i>(must be positive)</i>.
+     */
+    public void setCircuitBreakerMaxBackoffMillis(long circuitBreakerMaxBackoffMillis) {
+        if (circuitBreakerMaxBackoffMillis <= 0) throw new RuntimeException("circuitBreakerMaxBackoffMillis must be positive");
+        this.circuitBreakerMaxBackoffMillis = circuitBreakerMaxBackoffMillis;
+    }
+
+    public int getMaxBufferedDocuments() {
+        return maxBufferedDocuments;
+    }
+
+    /**
+     * @param maxBufferedDocuments Max documents kept in memory while writing fails, newer documents are
+     *                             discarded if the buffer is full, 0 (default) for unbounded
+     *                             <i>(must not be negative)</i>.
+     */
+    public void setMaxBufferedDocuments(int maxBufferedDocuments) {
+        if (maxBufferedDocuments < 0) throw new RuntimeException("maxBufferedDocuments must not be negative");
+        this.maxBufferedDocuments = maxBufferedDocuments;
+    }
+
+    public String getDeadLetterCollectionName() {
+        return deadLetterCollectionName;
+    }
+
+    /**
+     * @param deadLetterCollectionName Collection to keep invalid documents which will never be inserted,
+     *                                 e.g. too large or containing invalid keys <i>(may be null to
+     *                                 discard them)</i>.
+     */
+    public void setDeadLetterCollectionName(String deadLetterCollectionName) {
+        this.deadLetterCollectionName = deadLetterCollectionName;
+    }
+
+    public boolean isAdaptiveShedding() {
+        return adaptiveShedding;
+    }
+
+    /**
+     * @param adaptiveShedding If true, events of low levels are dropped or sampled while documents are piling
+     *                         up or MongoDB is slow.
+     */
+    public void setAdaptiveShedding(boolean adaptiveShedding) {
+        this.adaptiveShedding = adaptiveShedding;
+    }
+
+    public long getSheddingLatencyMillis() {
+        return sheddingLatencyMillis;
+    }
+
+    /**
+     * @param sheddingLatencyMillis Average write latency in milliseconds regarded as full pressure
+     *                              <i>(must be positive)</i>.
+     */
+    public void setSheddingLatencyMillis(long sheddingLatencyMillis) {
+        if (sheddingLatencyMillis <= 0) throw new RuntimeException("sheddingLatencyMillis must be positive");
+        this.sheddingLatencyMillis = sheddingLatencyMillis;
+    }
+
+    public double getHeapPressureThreshold() {
+        return heapPressureThreshold;
+    }
+
+    /**
+     * @param heapPressureThreshold Usage of the tenured heap after GC, in [0, 1), to switch to lean mode
+     *                              which drops DEBUG and leaves out location info and most stack frames
+     *                              <i>(0 to disable)</i>.
+     */
+    public void setHeapPressureThreshold(double heapPressureThreshold) {
+        if (heapPressureThreshold < 0 || heapPressureThreshold >= 1) {
+            throw new RuntimeException("heapPressureThreshold must be in [0, 1)");
+        }
+        this.heapPressureThreshold = heapPressureThreshold;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @param spillDirectory Directory to keep documents in local files while writing fails, they are
+     *                       written to MongoDB after it's available again, even after restarting
+     *                       <i>(may be null to keep them in memory only)</i>.
+     */
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public int getSpillSegmentSize() {
+        return spillSegmentSize;
+    }
+
+    /**
+     * @param spillSegmentSize Size of every spill file in bytes <i>(must be at least 1KB)</i>.
+     */
+    public void setSpillSegmentSize(int spillSegmentSize) {
+        if (spillSegmentSize < 1024) throw new RuntimeException("spillSegmentSize must be at least 1024");
+        this.spillSegmentSize = spillSegmentSize;
+    }
+
+    public int getSpillMaxSegments() {
+        return spillMaxSegments;
+    }
+
+    /**
+     * @param spillMaxSegments Max number of spill files, documents are kept in memory if all of them are
+     *                         full <i>(must be positive)</i>.
+     */
+    public void setSpillMaxSegments(int spillMaxSegments) {
+        if (spillMaxSegments <= 0) throw new RuntimeException("spillMaxSegments must be positive");
+        this.spillMaxSegments = spillMaxSegments;
+    }
+
+    public String getWalFile() {
+        return walFile;
+    }
+
+    /**
+     * @param walFile File of the write-ahead log, documents are appended to it before writing and
+     *                recovered while activating if they were not stored before a crash
+     *                <i>(may be null to disable)</i>.
+     */
+    public void setWalFile(String walFile) {
+        this.walFile = walFile;
+    }
+
+    public int getWalSize() {
+        return walSize;
+    }
+
+    /**
+     * @param walSize Size of the write-ahead log file in bytes, documents are not logged while it's full
+     *                <i>(must be at least 1KB)</i>.
+     */
+    public void setWalSize(int walSize) {
+        if (walSize < 1024) throw new RuntimeException("walSize must be at least 1024");
+        this.walSize = walSize;
+    }
+
+    public String getMetricsCollectionName() {
+        return metricsCollectionName;
+    }
+
+    /**
+     * @param metricsCollectionName Collection of event counts per logger, level and minute, including events
+     *                              not written <i>(may be null for not counting)</i>.
+     */
+    public void setMetricsCollectionName(String metricsCollectionName) {
+        this.metricsCollectionName = metricsCollectionName;
+    }
+
+    public int getMetricsFlushSeconds() {
+        return metricsFlushSeconds;
+    }
+
+    /**
+     * @param metricsFlushSeconds Interval of writing event counts into metrics collection <i>(must be positive)</i>.
+     */
+    public void setMetricsFlushSeconds(int metricsFlushSeconds) {
+        if (metricsFlushSeconds <= 0) throw new RuntimeException("metricsFlushSeconds must be positive");
+        this.metricsFlushSeconds = metricsFlushSeconds;
+    }
+
+    public boolean isCompactHourlyCollections() {
+        return compactHourlyCollections;
+    }
+
+    /**
+     * @param compactHourlyCollections If true, closed hourly collections are merged into daily ones in
+     *                                 background, the collection name must contain __HOUR_INFO__.
+     */
+    public void setCompactHourlyCollections(boolean compactHourlyCollections) {
+        this.compactHourlyCollections = compactHourlyCollections;
+    }
+
+    public int getCompactionDelayMinutes() {
+        return compactionDelayMinutes;
+    }
+
+    /**
+     * @param compactionDelayMinutes Minutes to wait after an hour ended before compacting its collection.
+     */
+    public void setCompactionDelayMinutes(int compactionDelayMinutes) {
+        if (compactionDelayMinutes < 0) throw new RuntimeException("compactionDelayMinutes must not be negative");
+        this.compactionDelayMinutes = compactionDelayMinutes;
+    }
+
+    public String getShardKey() {
+        return shardKey;
+    }
+
+    /**
+     * @param shardKey Shard key of new collections in format of indexSetting, such as "_id:hashed" or
+     *                 "host.name:1,timestamp:1" <i>(may be null for not sharding)</i>.
+     */
+    public void setShardKey(String shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    public int getShardInitialChunks() {
+        return shardInitialChunks;
+    }
+
+    /**
+     * @param shardInitialChunks Chunks pre-split while sharding collection with hashed shard key,
+     *                           0 to let server decide. Ignored for range shard key.
+     */
+    public void setShardInitialChunks(int shardInitialChunks) {
+        if (shardInitialChunks < 0) throw new RuntimeException("shardInitialChunks must not be negative");
+        this.shardInitialChunks = shardInitialChunks;
+    }
+
+    public int getCollectionPrepareAheadSeconds() {
+        return collectionPrepareAheadSeconds;
+    }
+
+    /**
+     * @param collectionPrepareAheadSeconds How many seconds before a time partitioned collection starts
+     *                                      should it be created by background scheduler, 0 to disable.
+     */
+    public void setCollectionPrepareAheadSeconds(int collectionPrepareAheadSeconds) {
+        if (collectionPrepareAheadSeconds < 0) throw new RuntimeException("collectionPrepareAheadSeconds must not be negative");
+        this.collectionPrepareAheadSeconds = collectionPrepareAheadSeconds;
+    }
+
     public String getTimeoutMills() {
         return timeoutMills;
     }
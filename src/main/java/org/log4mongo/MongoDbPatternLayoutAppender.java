@@ -71,7 +71,7 @@ public class MongoDbPatternLayoutAppender extends MongoDbAppender {
 
             if (bson != null) {
                 try {
-                    getCollection().insertOne(bson);
+                    getCollection(loggingEvent.getLevel()).insertOne(bson);
                 } catch (MongoException e) {
                     errorHandler.error("Failed to insert document to MongoDB", e,
                             ErrorCode.WRITE_FAILURE);
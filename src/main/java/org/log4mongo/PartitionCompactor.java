@@ -0,0 +1,172 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import org.apache.log4j.Level;
+import org.apache.log4j.helpers.LogLog;
+import org.bson.Document;
+
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merge closed hourly partitions into daily partitions by <code>$merge</code> (MongoDB 4.2 or newer)
+ * and drop the hourly ones, so there won't be too many small collections (every collection is a
+ * separate file with its own indexes in WiredTiger).
+ * <p>
+ * The daily partition name is generated by replacing <code>__HOUR_INFO__</code> in the template
+ * with <code>__DAY_INFO__</code>. Every hourly partition is claimed by a {@link PartitionLease}
+ * first, so only one of the JVMs sharing the database merges it. Indexes of every daily partition
+ * merged into are checked before the hourly partitions are dropped, so a run stopped in the middle
+ * is completed by the next run, merging the same hourly partition again won't duplicate logs.
+ * <p>
+ * It can be run by MongoDbAppender with compactHourlyCollections, or standalone:
+ * <pre>
+ * java org.log4mongo.PartitionCompactor mongodb://localhost/log4mongo log___HOUR_INFO__ [delayMinutes] [indexSetting]
+ * </pre>
+ */
+public class PartitionCompactor {
+
+    private final MongoDatabase db;
+
+    private final String dailyTemplate;
+
+    private final PartitionRetentionManager hourlyPartitions;
+
+    private final Consumer<MongoCollection<Document>> indexBuilder;
+
+    private final PartitionLease lease;
+
+    /**
+     * @param db             database of the collections
+     * @param hourlyTemplate collection name template containing __HOUR_INFO__, other macros except
+     *                       time and level must be resolved
+     * @param indexBuilder   creates indexes on daily partition
+     */
+    public PartitionCompactor(MongoDatabase db, String hourlyTemplate, Consumer<MongoCollection<Document>> indexBuilder) {
+        if (!hourlyTemplate.contains("__HOUR_INFO__")) {
+            throw new RuntimeException("Collection name template " + hourlyTemplate + " doesn't contain __HOUR_INFO__");
+        }
+        this.db = db;
+        this.dailyTemplate = getDailyTemplate(hourlyTemplate);
+        this.hourlyPartitions = new PartitionRetentionManager(hourlyTemplate, ZoneId.systemDefault());
+        this.indexBuilder = indexBuilder;
+        this.lease = new PartitionLease(db, TimeUnit.MINUTES.toMillis(30));
+    }
+
+    /**
+     * @param hourlyTemplate collection name template containing __HOUR_INFO__
+     * @return template of daily partitions
+     */
+    public static String getDailyTemplate(String hourlyTemplate) {
+        return hourlyTemplate.replace("__HOUR_INFO__", "__DAY_INFO__");
+    }
+
+    /**
+     * Compact all hourly partitions closed before the delay.
+     *
+     * @param now         current time in milliseconds
+     * @param delayMillis how long to wait after the end of an hourly partition, so no logs will be
+     *                    written to it anymore
+     * @return names of hourly partitions compacted
+     */
+    public List<String> compact(long now, long delayMillis) {
+        final Map<String, List<String>> merged = new LinkedHashMap<>();
+        for (String hourly : db.listCollectionNames()) {
+            final long end = hourlyPartitions.getPartitionEnd(hourly);
+            if (end < 0 || end + delayMillis >= now) {
+                continue;
+            }
+            final String daily = getDailyPartition(hourly);
+            if (daily == null) {
+                continue;
+            }
+            try {
+                if (!lease.claim("compact", hourly, now)) {
+                    // Being merged by another JVM
+                    continue;
+                }
+                // Keep the existing one, so a partition merged twice won't be duplicated
+                db.runCommand(new Document("aggregate", hourly)
+                        .append("pipeline", Lists.newArrayList(new Document("$merge", new Document("into", daily)
+                                .append("on", "_id")
+                                .append("whenMatched", "keepExisting")
+                                .append("whenNotMatched", "insert"))))
+                        .append("cursor", new Document()));
+                merged.computeIfAbsent(daily, name -> Lists.newArrayList()).add(hourly);
+            } catch (MongoException ex) {
+                LogLog.warn("Failed to merge collection " + hourly + " into " + daily, ex);
+            }
+        }
+        final List<String> compacted = Lists.newArrayList();
+        for (Map.Entry<String, List<String>> daily : merged.entrySet()) {
+            try {
+                // Existing indexes are kept, missing ones are built even if the daily partition existed
+                indexBuilder.accept(db.getCollection(daily.getKey()));
+            } catch (MongoException ex) {
+                // Hourly partitions are kept, so they are merged and indexed again by the next run
+                LogLog.warn("Failed to create indexes on collection " + daily.getKey(), ex);
+                continue;
+            }
+            for (String hourly : daily.getValue()) {
+                db.getCollection(hourly).drop();
+                compacted.add(hourly);
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * @param hourly name of a collection
+     * @return name of the daily partition to merge the collection into, or null if it's not an
+     * hourly partition of the template
+     */
+    String getDailyPartition(String hourly) {
+        final long end = hourlyPartitions.getPartitionEnd(hourly);
+        if (end < 0) {
+            return null;
+        }
+        final Level level = hourlyPartitions.getPartitionLevel(hourly);
+        final String daily = MongoDbAppender.resolveCollectionName(dailyTemplate, new Date(end - 1), level);
+        return daily.equals(hourly) ? null : daily;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: PartitionCompactor <connectionString with database> <hourly collection name template> [delayMinutes] [indexSetting]");
+            System.exit(1);
+        }
+        final MongoClientURI uri = new MongoClientURI(args[0]);
+        final long delayMillis = TimeUnit.MINUTES.toMillis(args.length > 2 ? Long.parseLong(args[2]) : 60);
+        final List<IndexDefinition> indexes = IndexDefinition.parse(args.length > 3 ? args[3] : "timestamp:1,level:hashed");
+        final MongoClient mongo = new MongoClient(uri);
+        try {
+            final PartitionCompactor compactor = new PartitionCompactor(
+                    mongo.getDatabase(uri.getDatabase() == null ? "log4mongo" : uri.getDatabase()),
+                    args[1],
+                    coll -> {
+                        coll.createIndex(new Document("log_timeout", 1), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+                        for (IndexDefinition index : indexes) {
+                            coll.createIndex(index.getKeys(), index.getOptions());
+                        }
+                    }
+            );
+            for (String hourly : compactor.compact(System.currentTimeMillis(), delayMillis)) {
+                System.out.println("Compacted " + hourly);
+            }
+        } finally {
+            mongo.close();
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.log4mongo;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leases of partitions for background jobs, so a job on a partition is run by only one of the JVMs
+ * sharing the database, e.g. compacting or rolling up a closed partition.
+ * <p>
+ * A lease is a document claimed by findOneAndUpdate, it can be taken over after it expires in case
+ * its owner died. Expired leases are removed by TTL index.
+ */
+public class PartitionLease {
+
+    /**
+     * Collection of the leases in the database of the partitions
+     */
+    public static final String COLLECTION_NAME = "log4mongo_leases";
+
+    private final MongoDatabase db;
+
+    private final long durationMillis;
+
+    private final String owner;
+
+    private volatile boolean indexed = false;
+
+    /**
+     * @param db             database of the partitions
+     * @param durationMillis time after claiming for other owners to take over the lease
+     */
+    public PartitionLease(MongoDatabase db, long durationMillis) {
+        if (durationMillis <= 0) {
+            throw new RuntimeException("Lease duration must be positive");
+        }
+        this.db = db;
+        this.durationMillis = durationMillis;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + new ObjectId().toHexString();
+    }
+
+    /**
+     * Claim the lease of a job on a partition, it's claimed again by the same owner.
+     *
+     * @param job       name of the job
+     * @param partition collection name of the partition
+     * @param now       current time in milliseconds
+     * @return true if claimed, false if another owner holds the lease
+     */
+    public boolean claim(String job, String partition, long now) {
+        final MongoCollection<Document> leases = db.getCollection(COLLECTION_NAME);
+        if (!indexed) {
+            leases.createIndex(new Document("expiresAt", 1), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+            indexed = true;
+        }
+        try {
+            // Upserting fails with duplicate key if the lease exists and is held by another owner
+            leases.findOneAndUpdate(getFilter(job, partition, now), new Document("$set",
+                    new Document("owner", owner).append("expiresAt", new Date(now + durationMillis))),
+                    new FindOneAndUpdateOptions().upsert(true));
+            return true;
+        } catch (MongoCommandException e) {
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return filter matching the lease if it's free to claim by this owner
+     */
+    Document getFilter(String job, String partition, long now) {
+        return new Document("_id", getLeaseId(job, partition))
+                .append("$or", Arrays.asList(
+                        new Document("owner", owner),
+                        new Document("expiresAt", new Document("$lte", new Date(now)))));
+    }
+
+    static String getLeaseId(String job, String partition) {
+        return job + ":" + partition;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+}
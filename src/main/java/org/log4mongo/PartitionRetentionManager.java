@@ -0,0 +1,147 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.Level;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Find expired time partitioned collections by the collection name template, so a whole partition
+ * can be dropped at once instead of deleting its logs one by one by TTL index.
+ * <p>
+ * A partition expires after the end of its period plus the retention of its level, the level is
+ * known only if the template contains <code>__LEVEL_INFO__</code>, otherwise the longest retention
+ * is used.
+ */
+public class PartitionRetentionManager {
+
+    private static final Pattern MACRO = Pattern.compile("__(HOUR|DAY|MONTH|LEVEL)_INFO__");
+
+    private final Pattern namePattern;
+
+    private final List<String> groups = Lists.newArrayList();
+
+    private final ZoneId zone;
+
+    /**
+     * @param template collection name template, other macros except time and level must be resolved
+     * @param zone     time zone used to format time macros
+     */
+    public PartitionRetentionManager(String template, ZoneId zone) {
+        this.zone = zone;
+        final StringBuilder regex = new StringBuilder();
+        final Matcher matcher = MACRO.matcher(template);
+        int last = 0;
+        while (matcher.find()) {
+            regex.append(Pattern.quote(template.substring(last, matcher.start())));
+            switch (matcher.group(1)) {
+                case "HOUR":
+                    regex.append("(\\d{8}_\\d{2})");
+                    break;
+                case "DAY":
+                    regex.append("(\\d{8})");
+                    break;
+                case "MONTH":
+                    regex.append("(\\d{6})");
+                    break;
+                default:
+                    regex.append("(trace|debug|info|warn|error|fatal)");
+            }
+            groups.add(matcher.group(1));
+            last = matcher.end();
+        }
+        regex.append(Pattern.quote(template.substring(last)));
+        if (!groups.contains("HOUR") && !groups.contains("DAY") && !groups.contains("MONTH")) {
+            throw new RuntimeException("Collection name template " + template + " doesn't contain any time macro");
+        }
+        namePattern = Pattern.compile(regex.toString());
+    }
+
+    /**
+     * @param collectionName name of the collection
+     * @return end time of the partition in milliseconds, or -1 if the name doesn't match the template
+     */
+    public long getPartitionEnd(String collectionName) {
+        final Matcher matcher = namePattern.matcher(collectionName);
+        if (!matcher.matches()) {
+            return -1;
+        }
+        long end = -1;
+        try {
+            for (int i = 0; i < groups.size(); i++) {
+                final String value = matcher.group(i + 1);
+                long groupEnd;
+                switch (groups.get(i)) {
+                    case "HOUR":
+                        groupEnd = LocalDateTime.parse(value, DateTimeFormatter.ofPattern("yyyyMMdd_HH"))
+                                .plusHours(1).atZone(zone).toInstant().toEpochMilli();
+                        break;
+                    case "DAY":
+                        groupEnd = LocalDate.parse(value, DateTimeFormatter.ofPattern("yyyyMMdd"))
+                                .plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                        break;
+                    case "MONTH":
+                        groupEnd = YearMonth.parse(value, DateTimeFormatter.ofPattern("yyyyMM"))
+                                .plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                        break;
+                    default:
+                        continue;
+                }
+                // The finest time macro decides the end of the partition
+                end = end < 0 ? groupEnd : Math.min(end, groupEnd);
+            }
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+        return end;
+    }
+
+    /**
+     * @param collectionName name of the collection
+     * @return level of the partition, or null if the template doesn't contain level macro
+     */
+    public Level getPartitionLevel(String collectionName) {
+        final int levelGroup = groups.indexOf("LEVEL");
+        if (levelGroup < 0) {
+            return null;
+        }
+        final Matcher matcher = namePattern.matcher(collectionName);
+        return matcher.matches() ? Level.toLevel(matcher.group(levelGroup + 1)) : null;
+    }
+
+    /**
+     * @param collectionNames names of all collections in the database
+     * @param now             current time in milliseconds
+     * @param levelRetention  retention of TRACE, DEBUG, INFO, WARN, ERROR and FATAL in milliseconds
+     * @return names of the partitions which are expired
+     */
+    public List<String> findExpired(Iterable<String> collectionNames, long now, long[] levelRetention) {
+        long maxRetention = 0;
+        for (long retention : levelRetention) {
+            maxRetention = Math.max(maxRetention, retention);
+        }
+        final List<String> expired = Lists.newArrayList();
+        for (String name : collectionNames) {
+            final long end = getPartitionEnd(name);
+            if (end < 0) {
+                continue;
+            }
+            final Level level = getPartitionLevel(name);
+            final int levelIndex = level == null ? -1 : MongoDbAppender.getLevelIndex(level);
+            final long retention = levelIndex < 0 ? maxRetention : levelRetention[levelIndex];
+            if (end + retention < now) {
+                expired.add(name);
+            }
+        }
+        return expired;
+    }
+
+}
@@ -0,0 +1,417 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import com.mongodb.MongoClient;
+import org.apache.log4j.helpers.LogLog;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Local store of documents which can't be written to MongoDB, documents are kept in rotating
+ * segment files written through memory-mapped I/O, so they survive restarts of the JVM and are
+ * replayed in order.
+ * <p>
+ * Segment file layout: magic (int), reserved (int), offset of the next record to replay (long),
+ * followed by records of length (int), CRC32 of the BSON (int) and the BSON document. A record of
+ * length 0 marks the end of the segment.
+ * <p>
+ * The store holds an exclusive lock on <code>prefix.lock</code> in the directory until it's closed,
+ * so segments are never shared by two stores, in the same process or not. Documents are replayed by
+ * one thread at a time, appending is not blocked while the replayed documents are being written.
+ * <p>
+ * Replaying a segment stops at a corrupted record, the segment file is kept as <code>.corrupt</code>
+ * for manual recovery instead of being deleted, and replaying goes on with the next segment.
+ */
+public class SpillStore implements Closeable {
+
+    private static final int MAGIC = 0x4C344D53;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final String SUFFIX = ".spill";
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    /**
+     * Returned by reading a corrupted or truncated record
+     */
+    private static final byte[] CORRUPTED = new byte[0];
+
+    private static final DocumentCodec CODEC = new DocumentCodec(MongoClient.getDefaultCodecRegistry());
+
+    private final File directory;
+
+    private final String prefix;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    /**
+     * Segments in order, the last one is written if it's opened for writing
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private Segment writeSegment = null;
+
+    private long nextSequence = 0;
+
+    /**
+     * @param directory   directory of the segment files, it's created if not existed
+     * @param prefix      prefix of the segment file names, every store must have its own prefix
+     * @param segmentSize size of every segment file in bytes
+     * @param maxSegments max number of segment files, documents are rejected if all are full
+     * @throws IOException if existing segments can't be opened, or the store is opened by another
+     *                     process or appender
+     */
+    public SpillStore(File directory, String prefix, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new RuntimeException("Segment size " + segmentSize + " is too small");
+        }
+        if (maxSegments <= 0) {
+            throw new RuntimeException("maxSegments must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory " + directory);
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        final File lockFile = new File(directory, prefix + LOCK_SUFFIX);
+        lockChannel = new RandomAccessFile(lockFile, "rw").getChannel();
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("Spill files " + lockFile + " are used by another process or appender");
+        }
+        lock = acquired;
+
+        try {
+            final File[] files = directory.listFiles((dir, name) ->
+                    name.startsWith(prefix + "-") && name.endsWith(SUFFIX) && parseSequence(name) >= 0);
+            if (files != null) {
+                Arrays.sort(files, (a, b) -> Long.compare(parseSequence(a.getName()), parseSequence(b.getName())));
+                for (File file : files) {
+                    final Segment segment = new Segment(file, false);
+                    if (segment.buffer.capacity() < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC) {
+                        LogLog.warn("Ignoring invalid spill file " + file);
+                        segment.close();
+                        continue;
+                    }
+                    segments.add(segment);
+                    nextSequence = parseSequence(file.getName()) + 1;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private long parseSequence(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(prefix.length() + 1, fileName.length() - SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Append a document to the last segment, a new segment is created if it's full.
+     *
+     * @param document document to keep
+     * @return false if the document is rejected because the store is full or the document is too large
+     * @throws IOException if a new segment can't be created
+     */
+    public synchronized boolean append(Document document) throws IOException {
+        final byte[] bson = toBson(document);
+        final int recordSize = RECORD_HEADER_SIZE + bson.length;
+        if (HEADER_SIZE + recordSize > segmentSize) {
+            return false;
+        }
+        if (writeSegment == null || writeSegment.writePosition + recordSize > segmentSize) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            writeSegment = new Segment(new File(directory, String.format("%s-%020d%s", prefix, nextSequence++, SUFFIX)), true);
+            segments.add(writeSegment);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bson);
+        final MappedByteBuffer buffer = writeSegment.buffer;
+        final int position = writeSegment.writePosition;
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.put(bson);
+        // Length is written last, so a partially written record is never replayed
+        buffer.putInt(position, bson.length);
+        writeSegment.writePosition = position + recordSize;
+        return true;
+    }
+
+    /**
+     * Replay the next documents in order, they are removed from the store only if the writer returns
+     * normally. The writer is called without holding the lock of the store.
+     *
+     * @param writer    writes the documents, throws exception if failed
+     * @param batchSize max number of documents to replay
+     * @return number of documents replayed, 0 if the store is empty
+     */
+    public int replay(Consumer<List<Document>> writer, int batchSize) {
+        final Batch batch = next(batchSize);
+        if (batch == null) {
+            return 0;
+        }
+        writer.accept(batch.documents);
+        commit(batch);
+        return batch.documents.size();
+    }
+
+    private synchronized Batch next(int batchSize) {
+        while (!segments.isEmpty()) {
+            final Segment segment = segments.peekFirst();
+            final List<Document> documents = Lists.newArrayList();
+            int position = segment.getReadOffset();
+            byte[] bson = null;
+            while (documents.size() < batchSize) {
+                bson = segment.read(position);
+                if (bson == null || bson == CORRUPTED) {
+                    break;
+                }
+                documents.add(fromBson(bson));
+                position += RECORD_HEADER_SIZE + bson.length;
+            }
+            if (documents.isEmpty() && bson == CORRUPTED) {
+                // Records after the corrupted one can't be found reliably, keep them for manual recovery
+                if (segment == writeSegment) {
+                    writeSegment = null;
+                }
+                segments.removeFirst();
+                segment.quarantine();
+                continue;
+            }
+            if (documents.isEmpty()) {
+                // Everything written has been replayed, a new segment is created for next document
+                if (segment == writeSegment) {
+                    writeSegment = null;
+                }
+                segments.removeFirst();
+                segment.delete();
+                continue;
+            }
+            return new Batch(segment, documents, position);
+        }
+        return null;
+    }
+
+    private synchronized void commit(Batch batch) {
+        if (segments.contains(batch.segment)) {
+            batch.segment.setReadOffset(batch.end);
+        }
+    }
+
+    /**
+     * @return true if there's no document to replay
+     */
+    public synchronized boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.read(segment.getReadOffset()) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        writeSegment = null;
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            LogLog.warn("Failed to release lock of spill files " + prefix, e);
+        }
+    }
+
+    static Document fromBson(byte[] bson) {
+        return new RawBsonDocument(bson).decode(CODEC);
+    }
+
+    static byte[] toBson(Document document) {
+        final RawBsonDocument raw = new RawBsonDocument(document, CODEC);
+        final byte[] bson = new byte[raw.getByteBuffer().remaining()];
+        raw.getByteBuffer().get(bson);
+        return bson;
+    }
+
+    /**
+     * Release a mapping now instead of at GC, so the file can be deleted on Windows and the address
+     * space is not leaked. The buffer must not be used afterwards.
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 or newer
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                // Java 8
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                LogLog.warn("Failed to unmap spill file, it's released by GC", ex);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LogLog.warn("Failed to unmap spill file, it's released by GC", e);
+        }
+    }
+
+    private static class Batch {
+
+        private final Segment segment;
+
+        private final List<Document> documents;
+
+        /**
+         * Offset after the last record of the batch
+         */
+        private final int end;
+
+        private Batch(Segment segment, List<Document> documents, int end) {
+            this.segment = segment;
+            this.documents = documents;
+            this.end = end;
+        }
+
+    }
+
+    private class Segment {
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        private int writePosition = HEADER_SIZE;
+
+        private Segment(File file, boolean create) throws IOException {
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                // The mapping stays valid after the channel is closed
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, create ? segmentSize : raf.length());
+            }
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putLong(8, HEADER_SIZE);
+            }
+        }
+
+        private int getReadOffset() {
+            return (int) buffer.getLong(8);
+        }
+
+        private void setReadOffset(int offset) {
+            buffer.putLong(8, offset);
+        }
+
+        /**
+         * @return BSON of the record at the position, null at the end of the segment, or CORRUPTED if
+         * the record is corrupted or truncated
+         */
+        private byte[] read(int position) {
+            if (position + RECORD_HEADER_SIZE > buffer.capacity()) {
+                return null;
+            }
+            final int length = buffer.getInt(position);
+            if (length <= 0) {
+                return null;
+            }
+            if (position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                LogLog.warn("Truncated record at " + position + " of spill file " + file);
+                return CORRUPTED;
+            }
+            final byte[] bson = new byte[length];
+            final ByteBuffer slice = buffer.duplicate();
+            slice.position(position + RECORD_HEADER_SIZE);
+            slice.get(bson);
+            final CRC32 crc = new CRC32();
+            crc.update(bson);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                LogLog.warn("Corrupted record at " + position + " of spill file " + file);
+                return CORRUPTED;
+            }
+            return bson;
+        }
+
+        /**
+         * Flush and unmap the segment, it must not be read or written afterwards.
+         */
+        private void close() {
+            buffer.force();
+            unmap(buffer);
+        }
+
+        private void delete() {
+            close();
+            if (!file.delete()) {
+                LogLog.warn("Failed to delete spill file " + file);
+            }
+        }
+
+        private void quarantine() {
+            close();
+            final File corrupt = new File(file.getPath() + CORRUPT_SUFFIX);
+            if (file.renameTo(corrupt)) {
+                LogLog.warn("Stopped replaying spill file at the corrupted record, the file is kept as " + corrupt);
+            } else {
+                LogLog.warn("Failed to rename corrupted spill file " + file + " to " + corrupt);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,224 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.helpers.LogLog;
+import org.bson.Document;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of documents accepted by the appender but not stored yet, it's a pre-allocated
+ * memory-mapped ring file, so documents survive a crash of the JVM at the cost of a memory copy.
+ * <p>
+ * Every appended document gets a ticket, the log is truncated up to the oldest ticket not committed.
+ * File layout: magic (int), reserved (int), position of the oldest record not committed (long),
+ * followed by the ring of records of length (int), CRC32 of the BSON (int), position of the
+ * record (long) and the BSON document. Positions keep growing across laps of the ring, so records
+ * left by previous laps are never recovered.
+ * <p>
+ * The file is locked exclusively until the log is closed, so it's never recovered or truncated by
+ * another process or appender while it's in use.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final int MAGIC = 0x4C344D57;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private static final int WRAP = -1;
+
+    private final File file;
+
+    private final MappedByteBuffer buffer;
+
+    private final FileChannel channel;
+
+    private final FileLock lock;
+
+    private final int capacity;
+
+    private long commitPosition;
+
+    private long writePosition;
+
+    /**
+     * Positions of the records not committed
+     */
+    private final TreeSet<Long> pending = new TreeSet<>();
+
+    /**
+     * @param file log file, it's created if not existed
+     * @param size size of the file in bytes, an existing file is resized if the size is different
+     * @throws IOException if the file can't be mapped, or it's used by another process or appender
+     */
+    public WriteAheadLog(File file, int size) throws IOException {
+        if (size <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new RuntimeException("Write-ahead log size " + size + " is too small");
+        }
+        this.file = file;
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            FileLock acquired;
+            try {
+                acquired = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                acquired = null;
+            }
+            if (acquired == null) {
+                throw new IOException("Write-ahead log " + file + " is used by another process or appender");
+            }
+            lock = acquired;
+            final boolean valid = raf.length() == size && raf.readInt() == MAGIC;
+            if (!valid && raf.length() > 0) {
+                LogLog.warn("Write-ahead log " + file + " is invalid or resized, it's recreated");
+                raf.setLength(0);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+        capacity = size - HEADER_SIZE;
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putLong(8, 0L);
+            buffer.putInt(0, MAGIC);
+        }
+        commitPosition = buffer.getLong(8);
+        writePosition = commitPosition;
+    }
+
+    /**
+     * Read the documents not committed before the last close or crash, the log is truncated after
+     * reading, so they must be appended again if they are still not stored.
+     *
+     * @return documents in order
+     */
+    public synchronized List<Document> recover() {
+        final List<Document> documents = Lists.newArrayList();
+        long position = commitPosition;
+        while (position - commitPosition < capacity) {
+            final int offset = (int) (position % capacity);
+            if (offset + RECORD_HEADER_SIZE > capacity || buffer.getInt(HEADER_SIZE + offset) == WRAP) {
+                position += capacity - offset;
+                continue;
+            }
+            final int length = buffer.getInt(HEADER_SIZE + offset);
+            if (length <= 0 || offset + RECORD_HEADER_SIZE + length > capacity
+                    || buffer.getLong(HEADER_SIZE + offset + 8) != position) {
+                break;
+            }
+            final byte[] bson = new byte[length];
+            final ByteBuffer slice = buffer.duplicate();
+            slice.position(HEADER_SIZE + offset + RECORD_HEADER_SIZE);
+            slice.get(bson);
+            final CRC32 crc = new CRC32();
+            crc.update(bson);
+            if ((int) crc.getValue() != buffer.getInt(HEADER_SIZE + offset + 4)) {
+                LogLog.warn("Corrupted record at " + position + " of write-ahead log " + file + ", the rest is skipped");
+                break;
+            }
+            documents.add(SpillStore.fromBson(bson));
+            position += RECORD_HEADER_SIZE + length;
+        }
+        pending.clear();
+        writePosition = position;
+        setCommitPosition(position);
+        return documents;
+    }
+
+    /**
+     * Append a document before writing it to MongoDB.
+     *
+     * @param document document accepted
+     * @return ticket to commit the document, or -1 if the log is full
+     */
+    public synchronized long append(Document document) {
+        final byte[] bson = SpillStore.toBson(document);
+        final int recordSize = RECORD_HEADER_SIZE + bson.length;
+        if (recordSize > capacity) {
+            return -1;
+        }
+        long position = writePosition;
+        int offset = (int) (position % capacity);
+        final boolean wrap = offset + recordSize > capacity;
+        if (wrap) {
+            position += capacity - offset;
+        }
+        if (position + recordSize - commitPosition > capacity) {
+            return -1;
+        }
+        if (wrap && offset + 4 <= capacity) {
+            buffer.putInt(HEADER_SIZE + offset, WRAP);
+        }
+        offset = (int) (position % capacity);
+        final CRC32 crc = new CRC32();
+        crc.update(bson);
+        buffer.putLong(HEADER_SIZE + offset + 8, position);
+        buffer.putInt(HEADER_SIZE + offset + 4, (int) crc.getValue());
+        buffer.position(HEADER_SIZE + offset + RECORD_HEADER_SIZE);
+        buffer.put(bson);
+        // Length is written last, so a partially written record is never recovered
+        buffer.putInt(HEADER_SIZE + offset, bson.length);
+        writePosition = position + recordSize;
+        if (pending.isEmpty()) {
+            // Skip the gap of wrapping and records committed
+            setCommitPosition(position);
+        }
+        pending.add(position);
+        return position;
+    }
+
+    /**
+     * Commit a document after it's stored, the log is truncated up to the oldest document not
+     * committed.
+     *
+     * @param ticket ticket returned by {@link #append(Document)}
+     */
+    public synchronized void commit(long ticket) {
+        if (!pending.remove(ticket)) {
+            return;
+        }
+        setCommitPosition(pending.isEmpty() ? writePosition : pending.first());
+    }
+
+    /**
+     * @return number of documents not committed
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void setCommitPosition(long position) {
+        commitPosition = position;
+        buffer.putLong(8, position);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        buffer.force();
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            LogLog.warn("Failed to release lock of write-ahead log " + file, e);
+        }
+    }
+
+}
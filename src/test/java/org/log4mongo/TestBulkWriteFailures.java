@@ -0,0 +1,86 @@
+package org.log4mongo;
+
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BulkWriteFailures, no MongoDB server is required.
+ */
+public class TestBulkWriteFailures {
+
+    private final List<Document> documents = Arrays.asList(
+            new Document("i", 0), new Document("i", 1), new Document("i", 2), new Document("i", 3));
+
+    private static BulkWriteError error(int code, int index) {
+        return new BulkWriteError(code, "error " + code, new BsonDocument(), index);
+    }
+
+    private static BulkWriteError duplicate(String index, int position) {
+        return new BulkWriteError(11000, "E11000 duplicate key error collection: log.log index: " + index
+                + " dup key: { : 1 }", new BsonDocument(), position);
+    }
+
+    @Test
+    public void testClassify() {
+        BulkWriteFailures failures = new BulkWriteFailures(documents,
+                Arrays.asList(duplicate("_id_", 0), error(10334, 1), error(91, 3)), false);
+        assertEquals(Arrays.asList(documents.get(0), documents.get(2)), failures.getCommitted());
+        assertEquals(1, failures.getRejected().size());
+        assertEquals(10334, failures.getRejected().get(documents.get(1)).getCode());
+        assertEquals(Collections.singletonList(documents.get(3)), failures.getRetry());
+    }
+
+    @Test
+    public void testWriteConcernFailed() {
+        BulkWriteFailures failures = new BulkWriteFailures(documents,
+                Collections.singletonList(error(17280, 2)), true);
+        assertTrue(failures.getCommitted().isEmpty());
+        assertEquals(1, failures.getRejected().size());
+        assertEquals(Arrays.asList(documents.get(0), documents.get(1), documents.get(3)), failures.getRetry());
+    }
+
+    @Test
+    public void testOtherUniqueIndex() {
+        // Conflicts with another document, it's never inserted
+        BulkWriteFailures failures = new BulkWriteFailures(documents,
+                Collections.singletonList(duplicate("requestId_1", 1)), false);
+        assertEquals(1, failures.getRejected().size());
+        assertEquals(11000, failures.getRejected().get(documents.get(1)).getCode());
+        assertEquals(Arrays.asList(documents.get(0), documents.get(2), documents.get(3)), failures.getCommitted());
+        assertTrue(failures.getRetry().isEmpty());
+    }
+
+    @Test
+    public void testErrorCodes() {
+        assertTrue(BulkWriteFailures.isDuplicate(duplicate("_id_", 0)));
+        assertFalse(BulkWriteFailures.isDuplicate(duplicate("_id_1", 0)));
+        assertFalse(BulkWriteFailures.isDuplicate(error(11000, 0)));
+        assertFalse(BulkWriteFailures.isDuplicate(error(10334, 0)));
+        assertTrue(BulkWriteFailures.isPermanent(error(10334, 0)));
+        assertTrue(BulkWriteFailures.isPermanent(duplicate("requestId_1", 0)));
+        assertFalse(BulkWriteFailures.isPermanent(duplicate("_id_", 0)));
+        assertFalse(BulkWriteFailures.isPermanent(error(91, 0)));
+    }
+
+    @Test
+    public void testDuplicateMessageFormats() {
+        // MongoDB 2.6 names the index with the namespace
+        assertTrue(BulkWriteFailures.isDuplicate(new BulkWriteError(11000,
+                "E11000 duplicate key error index: log.log.$_id_  dup key: { : 1 }", new BsonDocument(), 0)));
+        // MongoDB 4.4 and newer report the key pattern
+        assertTrue(BulkWriteFailures.isDuplicate(new BulkWriteError(11000, "duplicate",
+                new BsonDocument("keyPattern", new BsonDocument("_id", new BsonInt32(1))), 0)));
+        assertFalse(BulkWriteFailures.isDuplicate(new BulkWriteError(11000, "index: _id_",
+                new BsonDocument("keyPattern", new BsonDocument("requestId", new BsonInt32(1))), 0)));
+    }
+
+}
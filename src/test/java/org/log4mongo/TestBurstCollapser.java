@@ -0,0 +1,65 @@
+package org.log4mongo;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for BurstCollapser, no MongoDB server is required.
+ */
+public class TestBurstCollapser {
+
+    private static LoggingEvent event(String message, long timestamp, Throwable t) {
+        return new LoggingEvent(Logger.class.getName(), Logger.getLogger("a.B"), timestamp, Level.ERROR, message, t);
+    }
+
+    @Test
+    public void testCollapseRepeats() {
+        BurstCollapser collapser = new BurstCollapser(1000L, 10);
+        assertNotNull(collapser.admit(event("failed", 0L, null), 0L));
+        assertNull(collapser.admit(event("failed", 10L, null), 10L));
+        assertNull(collapser.admit(event("failed", 20L, null), 20L));
+        // Different message or exception class is another key
+        assertNotNull(collapser.admit(event("other", 30L, null), 30L));
+        assertNotNull(collapser.admit(event("failed", 40L, new IllegalStateException()), 40L));
+        assertNull(collapser.admit(event("failed", 50L, new IllegalStateException()), 50L));
+
+        assertTrue(collapser.drain(999L).isEmpty());
+        List<BurstCollapser.Window> closed = collapser.drain(1040L);
+        assertEquals(2, closed.size());
+        long repeats = 0;
+        for (BurstCollapser.Window window : closed) {
+            repeats += window.getRepeats();
+        }
+        assertEquals(3, repeats);
+        assertTrue(collapser.drain(2000L).isEmpty());
+    }
+
+    @Test
+    public void testNewWindowAfterExpired() {
+        BurstCollapser collapser = new BurstCollapser(1000L, 10);
+        collapser.admit(event("failed", 0L, null), 0L);
+        collapser.admit(event("failed", 500L, null), 500L);
+        // Starts a new window, the old one is closed
+        assertNotNull(collapser.admit(event("failed", 1500L, null), 1500L));
+        List<BurstCollapser.Window> closed = collapser.drain(1600L);
+        assertEquals(1, closed.size());
+        assertEquals(1, closed.get(0).getRepeats());
+        assertEquals(0L, closed.get(0).getFirstTimestamp());
+        assertEquals(500L, closed.get(0).getLastTimestamp());
+    }
+
+    @Test
+    public void testMaxWindows() {
+        BurstCollapser collapser = new BurstCollapser(1000L, 1);
+        collapser.admit(event("a", 0L, null), 0L);
+        assertNotNull(collapser.admit(event("b", 0L, null), 0L));
+        assertNotNull(collapser.admit(event("b", 0L, null), 0L));
+    }
+
+}
@@ -0,0 +1,59 @@
+package org.log4mongo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for CircuitBreaker, no MongoDB server is required.
+ */
+public class TestCircuitBreaker {
+
+    @Test
+    public void testOpenAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000L, 8000L);
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        breaker.recordSuccess();
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        assertTrue(breaker.allowRequest());
+
+        assertTrue(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        // Failures while open don't open it again
+        assertFalse(breaker.recordFailure());
+    }
+
+    @Test
+    public void testProbeBackoff() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000L, 3000L);
+        assertTrue(breaker.recordFailure());
+        assertEquals(1000L, breaker.getBackoffMillis());
+
+        assertTrue(breaker.tryProbe());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // Only one probe at a time
+        assertFalse(breaker.tryProbe());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(2000L, breaker.getBackoffMillis());
+        assertTrue(breaker.tryProbe());
+        breaker.recordFailure();
+        assertEquals(3000L, breaker.getBackoffMillis());
+
+        assertTrue(breaker.tryProbe());
+        breaker.recordSuccess();
+        assertTrue(breaker.allowRequest());
+        assertEquals(1000L, breaker.getBackoffMillis());
+        assertFalse(breaker.tryProbe());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidThreshold() {
+        new CircuitBreaker(0, 1000L, 1000L);
+    }
+
+}
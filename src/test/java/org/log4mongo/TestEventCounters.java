@@ -0,0 +1,49 @@
+package org.log4mongo;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for EventCounters, no MongoDB server is required.
+ */
+public class TestEventCounters {
+
+    @Test
+    public void testCountAndDrain() {
+        EventCounters counters = new EventCounters();
+        counters.record("a.b.C", "DEBUG", 60000L, true);
+        counters.record("a.b.C", "DEBUG", 119999L, false);
+        counters.record("a.b.C", "DEBUG", 120000L, true);
+        counters.record("a.b.C", "INFO", 60001L, false);
+
+        Map<EventCounters.Key, long[]> counts = counters.drain(120001L);
+        assertEquals(3, counts.size());
+        assertArrayEquals(new long[]{2, 1}, counts.get(new EventCounters.Key("a.b.C", "DEBUG", 60000L)));
+        assertArrayEquals(new long[]{1, 1}, counts.get(new EventCounters.Key("a.b.C", "DEBUG", 120000L)));
+        assertArrayEquals(new long[]{1, 0}, counts.get(new EventCounters.Key("a.b.C", "INFO", 60000L)));
+
+        // Counts are reset after draining
+        assertTrue(counters.drain(120001L).isEmpty());
+    }
+
+    @Test
+    public void testRecordDropped() {
+        EventCounters counters = new EventCounters();
+        counters.record("a", "INFO", 1000L, false);
+        counters.recordDropped("a", "INFO", 2000L);
+        assertArrayEquals(new long[]{1, 1}, counters.drain(60000L).get(new EventCounters.Key("a", "INFO", 0L)));
+    }
+
+    @Test
+    public void testAddBack() {
+        EventCounters counters = new EventCounters();
+        EventCounters.Key key = new EventCounters.Key("a", "WARN", 0L);
+        counters.add(key, 5, 2);
+        counters.add(key, 1, 0);
+        assertArrayEquals(new long[]{6, 2}, counters.drain(60000L).get(key));
+    }
+
+}
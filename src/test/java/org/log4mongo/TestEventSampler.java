@@ -0,0 +1,65 @@
+package org.log4mongo;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for EventSampler, no MongoDB server is required.
+ */
+public class TestEventSampler {
+
+    @Test
+    public void testRuleResolution() {
+        EventSampler sampler = new EventSampler("*@TRACE=0;com.example=1;com.example.noisy@DEBUG=0");
+        assertEquals(0, sampler.sample("org.other", Level.TRACE, 0L), 0);
+        assertEquals(1, sampler.sample("org.other", Level.DEBUG, 0L), 0);
+        // Longer prefix wins
+        assertEquals(1, sampler.sample("com.example.Foo", Level.TRACE, 0L), 0);
+        assertEquals(0, sampler.sample("com.example.noisy.Bar", Level.DEBUG, 0L), 0);
+        assertEquals(1, sampler.sample("com.example.noisy.Bar", Level.INFO, 0L), 0);
+        // Prefix matches at package boundary only
+        assertEquals(1, sampler.sample("com.examples.Foo", Level.DEBUG, 0L), 0);
+        assertEquals(0, sampler.sample("com.examples.Foo", Level.TRACE, 0L), 0);
+    }
+
+    @Test
+    public void testRateLimitWeight() {
+        EventSampler sampler = new EventSampler("a=1,2");
+        assertEquals(1, sampler.sample("a.B", Level.INFO, 1000L), 0);
+        assertEquals(1, sampler.sample("a.B", Level.INFO, 1000L), 0);
+        assertEquals(0, sampler.sample("a.B", Level.INFO, 1000L), 0);
+        assertEquals(0, sampler.sample("a.B", Level.INFO, 1000L), 0);
+        // One token after half a second, the dropped events are carried by the weight
+        assertEquals(3, sampler.sample("a.B", Level.INFO, 1500L), 0);
+    }
+
+    @Test
+    public void testSamplingWeight() {
+        EventSampler sampler = new EventSampler("a=0.25");
+        int sampled = 0;
+        double total = 0;
+        for (int i = 0; i < 40000; i++) {
+            double weight = sampler.sample("a", Level.INFO, 0L);
+            if (weight > 0) {
+                assertEquals(4, weight, 0);
+                sampled++;
+                total += weight;
+            }
+        }
+        assertTrue(sampled > 9000 && sampled < 11000);
+        assertEquals(40000, total, 4000);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidRate() {
+        new EventSampler("a=2");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidLevel() {
+        new EventSampler("a@NOPE=0.5");
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for FlightRecorder, no MongoDB server is required.
+ */
+public class TestFlightRecorder {
+
+    private final List<LoggingEvent> discarded = Lists.newArrayList();
+
+    @After
+    public void tearDown() {
+        MDC.remove("traceId");
+    }
+
+    private LoggingEvent event(String traceId, Level level, String message) {
+        if (traceId == null) {
+            MDC.remove("traceId");
+        } else {
+            MDC.put("traceId", traceId);
+        }
+        return new LoggingEvent(Logger.class.getName(), Logger.getLogger("test"), level, message, null);
+    }
+
+    @Test
+    public void testTakeScopeOfError() {
+        FlightRecorder recorder = new FlightRecorder("traceId", 10, 100, 60000, discarded::add);
+        recorder.record(event("a", Level.DEBUG, "a1"), 0, false);
+        recorder.record(event("b", Level.DEBUG, "b1"), 0, false);
+        recorder.record(event("a", Level.DEBUG, "a2"), 0, false);
+        assertEquals(2, recorder.getScopeCount());
+
+        List<LoggingEvent> events = recorder.take(event("a", Level.ERROR, "failed"));
+        assertEquals(2, events.size());
+        assertEquals("a1", events.get(0).getRenderedMessage());
+        assertEquals("a2", events.get(1).getRenderedMessage());
+        // MDC is captured while recording
+        assertEquals("a", events.get(0).getMDC("traceId"));
+        assertEquals(1, recorder.getSize());
+        assertTrue(recorder.take(event("c", Level.ERROR, "failed")).isEmpty());
+        assertTrue(discarded.isEmpty());
+    }
+
+    @Test
+    public void testThreadScopeWithoutTraceId() {
+        FlightRecorder recorder = new FlightRecorder("traceId", 10, 100, 60000, discarded::add);
+        recorder.record(event(null, Level.DEBUG, "t1"), 0, false);
+        recorder.record(event("a", Level.DEBUG, "a1"), 0, false);
+        List<LoggingEvent> events = recorder.take(event(null, Level.ERROR, "failed"));
+        assertEquals(1, events.size());
+        assertEquals("t1", events.get(0).getRenderedMessage());
+    }
+
+    @Test
+    public void testRingCapacity() {
+        FlightRecorder recorder = new FlightRecorder(null, 3, 100, 60000, discarded::add);
+        for (int i = 0; i < 5; i++) {
+            recorder.record(event(null, Level.DEBUG, "m" + i), 0, false);
+        }
+        assertEquals(2, discarded.size());
+        assertEquals("m0", discarded.get(0).getRenderedMessage());
+        List<LoggingEvent> events = recorder.take(event(null, Level.ERROR, "failed"));
+        assertEquals(3, events.size());
+        assertEquals("m2", events.get(0).getRenderedMessage());
+    }
+
+    @Test
+    public void testIdleExpiry() {
+        FlightRecorder recorder = new FlightRecorder("traceId", 10, 100, 1000, discarded::add);
+        recorder.record(event("a", Level.DEBUG, "a1"), 0, false);
+        recorder.record(event("b", Level.DEBUG, "b1"), 500, false);
+        recorder.expire(999);
+        assertEquals(2, recorder.getScopeCount());
+        recorder.expire(1000);
+        assertEquals(1, recorder.getScopeCount());
+        assertEquals("a1", discarded.get(0).getRenderedMessage());
+        recorder.clear();
+        assertEquals(0, recorder.getSize());
+        assertEquals(2, discarded.size());
+    }
+
+    @Test
+    public void testEvictOldestScope() {
+        FlightRecorder recorder = new FlightRecorder("traceId", 2, 3, 60000, discarded::add);
+        recorder.record(event("a", Level.DEBUG, "a1"), 0, false);
+        recorder.record(event("b", Level.DEBUG, "b1"), 1, false);
+        recorder.record(event("a", Level.DEBUG, "a2"), 2, false);
+        recorder.record(event("c", Level.DEBUG, "c1"), 3, false);
+        // Scope b has the oldest last event
+        assertEquals(1, discarded.size());
+        assertEquals("b1", discarded.get(0).getRenderedMessage());
+        assertEquals(3, recorder.getSize());
+        assertEquals(2, recorder.take(event("a", Level.ERROR, "failed")).size());
+    }
+
+    @Test
+    public void testLocationCapture() {
+        FlightRecorder recorder = new FlightRecorder("traceId", 10, 100, 60000, discarded::add);
+        recorder.record(event("a", Level.DEBUG, "a1"), 0, false);
+        recorder.record(event("b", Level.DEBUG, "b1"), 0, true);
+
+        LoggingEvent skipped = recorder.take(event("a", Level.ERROR, "failed")).get(0);
+        assertSame(LocationInfo.NA_LOCATION_INFO, skipped.getLocationInformation());
+        assertEquals("a1", skipped.getRenderedMessage());
+        assertEquals("a", skipped.getMDC("traceId"));
+        assertEquals(Level.DEBUG, skipped.getLevel());
+
+        LoggingEvent captured = recorder.take(event("b", Level.ERROR, "failed")).get(0);
+        assertNotSame(LocationInfo.NA_LOCATION_INFO, captured.getLocationInformation());
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.log4mongo;
+
+import org.junit.Test;
+
+import java.lang.management.MemoryUsage;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for HeapPressureMonitor, no MongoDB server is required.
+ */
+public class TestHeapPressureMonitor {
+
+    @Test
+    public void testLeanModeWithHysteresis() {
+        HeapPressureMonitor monitor = new HeapPressureMonitor(0.85);
+        try {
+            assertFalse(monitor.update(0.5));
+            assertTrue(monitor.update(0.9));
+            assertTrue(monitor.isLean());
+            // Left only after the usage drops below the threshold by the margin
+            assertTrue(monitor.update(0.8));
+            assertFalse(monitor.update(0.7));
+            assertFalse(monitor.isLean());
+        } finally {
+            monitor.close();
+        }
+    }
+
+    @Test
+    public void testUsageRatio() {
+        assertEquals(0, HeapPressureMonitor.usageRatio(null), 0);
+        assertEquals(0.5, HeapPressureMonitor.usageRatio(new MemoryUsage(0, 50, 80, 100)), 1e-9);
+        // Committed memory is used if the max is undefined
+        assertEquals(0.625, HeapPressureMonitor.usageRatio(new MemoryUsage(0, 50, 80, -1)), 1e-9);
+    }
+
+    @Test
+    public void testCheckLiveHeap() {
+        HeapPressureMonitor monitor = new HeapPressureMonitor(0.99);
+        try {
+            System.gc();
+            assertFalse(monitor.check());
+            assertTrue(monitor.getUsage() >= 0 && monitor.getUsage() < 0.99);
+        } finally {
+            monitor.close();
+            monitor.close();
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidThreshold() {
+        new HeapPressureMonitor(1.5);
+    }
+
+}
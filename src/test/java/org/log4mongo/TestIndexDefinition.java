@@ -0,0 +1,87 @@
+package org.log4mongo;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for IndexDefinition parsing, no MongoDB server is required.
+ */
+public class TestIndexDefinition {
+
+    @Test
+    public void testSimpleFormat() {
+        List<IndexDefinition> indexes = IndexDefinition.parse("timestamp:1,level:hashed");
+        assertEquals(2, indexes.size());
+        assertEquals(new Document("timestamp", 1), indexes.get(0).getKeys());
+        assertEquals(new Document("level", "hashed"), indexes.get(1).getKeys());
+    }
+
+    @Test
+    public void testSupportedByTimeSeries() {
+        List<IndexDefinition> indexes = IndexDefinition.parse("timestamp:1,level:hashed,message:text,host.name:-1");
+        assertTrue(indexes.get(0).isSupportedByTimeSeries());
+        assertFalse(indexes.get(1).isSupportedByTimeSeries());
+        assertFalse(indexes.get(2).isSupportedByTimeSeries());
+        assertTrue(indexes.get(3).isSupportedByTimeSeries());
+        assertFalse(IndexDefinition.parse("[{\"key\":{\"properties.$**\":1}}]").get(0).isSupportedByTimeSeries());
+    }
+
+    @Test
+    public void testEmptySetting() {
+        assertTrue(IndexDefinition.parse("").isEmpty());
+        assertTrue(IndexDefinition.parse(null).isEmpty());
+    }
+
+    @Test
+    public void testJsonFormat() {
+        List<IndexDefinition> indexes = IndexDefinition.parse("[" +
+                "{\"key\":{\"level\":1,\"timestamp\":-1},\"name\":\"level_time\"," +
+                "\"partialFilterExpression\":{\"level\":{\"$in\":[\"ERROR\",\"FATAL\"]}}}," +
+                "{\"key\":{\"properties.$**\":1}}," +
+                "{\"key\":{\"message\":1},\"sparse\":true,\"collation\":{\"locale\":\"en\",\"strength\":2}}" +
+                "]");
+        assertEquals(3, indexes.size());
+
+        IndexDefinition compound = indexes.get(0);
+        assertEquals(new Document("level", 1).append("timestamp", -1), compound.getKeys());
+        assertEquals("level_time", compound.getOptions().getName());
+        assertNotNull(compound.getOptions().getPartialFilterExpression());
+
+        assertEquals(new Document("properties.$**", 1), indexes.get(1).getKeys());
+
+        IndexDefinition sparse = indexes.get(2);
+        assertTrue(sparse.getOptions().isSparse());
+        assertEquals("en", sparse.getOptions().getCollation().getLocale());
+    }
+
+    @Test
+    public void testShardKeys() {
+        assertEquals(new Document("host.name", 1).append("timestamp", 1),
+                IndexDefinition.parseKeys("host.name:1, timestamp:1"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidType() {
+        IndexDefinition.parse("level:unknown");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidDirection() {
+        IndexDefinition.parse("timestamp:2");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnsupportedOption() {
+        IndexDefinition.parse("[{\"key\":{\"level\":1},\"unique\":true}]");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCompoundWildcard() {
+        IndexDefinition.parse("[{\"key\":{\"properties.$**\":1,\"level\":1}}]");
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.log4mongo;
+
+import com.mongodb.WriteConcern;
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for write concern and async settings of levels, no MongoDB server is required.
+ */
+public class TestLevelWriteConcern {
+
+    @Test
+    public void testParseWriteConcern() {
+        assertEquals(WriteConcern.MAJORITY, MongoDbAppender.parseWriteConcern("majority"));
+        assertEquals(WriteConcern.UNACKNOWLEDGED, MongoDbAppender.parseWriteConcern(" unacknowledged "));
+        assertEquals(new WriteConcern(2), MongoDbAppender.parseWriteConcern("2"));
+
+        WriteConcern concern = MongoDbAppender.parseWriteConcern("majority, 1000");
+        assertEquals(WriteConcern.MAJORITY.withWTimeout(1000, TimeUnit.MILLISECONDS), concern);
+        assertEquals(Integer.valueOf(1000), concern.getWTimeout(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testInvalidWriteConcern() {
+        for (String setting : new String[]{"unknown", "majority,1000,1", "majority,soon"}) {
+            try {
+                MongoDbAppender.parseWriteConcern(setting);
+                fail("Accepted " + setting);
+            } catch (RuntimeException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testLevelWriteConcern() {
+        MongoDbAppender appender = new MongoDbAppender();
+        appender.setLevelWriteConcern("ERROR=majority,1000; FATAL=majority;DEBUG=0");
+        assertEquals(WriteConcern.MAJORITY.withWTimeout(1000, TimeUnit.MILLISECONDS), appender.getLevelConcern(Level.ERROR));
+        assertEquals(WriteConcern.MAJORITY, appender.getLevelConcern(Level.FATAL));
+        assertEquals(new WriteConcern(0), appender.getLevelConcern(Level.DEBUG));
+        assertNull(appender.getLevelConcern(Level.INFO));
+
+        // Replaced by the next setting
+        appender.setLevelWriteConcern("WARN=1");
+        assertNull(appender.getLevelConcern(Level.ERROR));
+        assertEquals(new WriteConcern(1), appender.getLevelConcern(Level.WARN));
+
+        appender.setLevelWriteConcern(null);
+        assertNull(appender.getLevelConcern(Level.WARN));
+    }
+
+    @Test
+    public void testInvalidLevelWriteConcern() {
+        MongoDbAppender appender = new MongoDbAppender();
+        for (String setting : new String[]{"ERROR", "NOTICE=majority", "ALL=1", "ERROR=unknown"}) {
+            try {
+                appender.setLevelWriteConcern(setting);
+                fail("Accepted " + setting);
+            } catch (RuntimeException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncLevels() {
+        MongoDbAppender appender = new MongoDbAppender();
+        appender.setAsyncLevels("TRACE, debug");
+        assertTrue(appender.isAsyncLevel(Level.TRACE));
+        assertTrue(appender.isAsyncLevel(Level.DEBUG));
+        assertFalse(appender.isAsyncLevel(Level.INFO));
+        assertFalse(appender.isAsyncLevel(Level.ALL));
+
+        appender.setAsyncLevels("INFO");
+        assertFalse(appender.isAsyncLevel(Level.TRACE));
+        assertTrue(appender.isAsyncLevel(Level.INFO));
+
+        appender.setAsyncLevels("");
+        assertFalse(appender.isAsyncLevel(Level.INFO));
+
+        try {
+            appender.setAsyncLevels("DEBUG,VERBOSE");
+            fail("Accepted unknown level");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+    }
+
+}
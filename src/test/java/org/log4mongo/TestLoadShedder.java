@@ -0,0 +1,55 @@
+package org.log4mongo;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for LoadShedder, no MongoDB server is required.
+ */
+public class TestLoadShedder {
+
+    @Test
+    public void testQueuePressure() {
+        LoadShedder shedder = new LoadShedder(100, 200L);
+        assertEquals(0, shedder.update(10));
+        assertFalse(shedder.shouldShed(Level.TRACE));
+
+        assertEquals(1, shedder.update(50));
+        assertTrue(shedder.shouldShed(Level.TRACE));
+        assertFalse(shedder.shouldShed(Level.DEBUG));
+
+        assertEquals(2, shedder.update(80));
+        assertTrue(shedder.shouldShed(Level.DEBUG));
+        assertFalse(shedder.shouldShed(Level.WARN));
+
+        assertEquals(4, shedder.update(100));
+        assertTrue(shedder.shouldShed(Level.INFO));
+        assertFalse(shedder.shouldShed(Level.ERROR));
+        assertFalse(shedder.shouldShed(Level.FATAL));
+
+        // Relaxed only after the pressure drops below the threshold by the margin
+        assertEquals(3, shedder.update(80));
+        assertEquals(3, shedder.update(75));
+        assertEquals(1, shedder.update(40));
+        assertEquals(0, shedder.update(0));
+    }
+
+    @Test
+    public void testLatencyPressure() {
+        LoadShedder shedder = new LoadShedder(100, 100L);
+        for (int i = 0; i < 20; i++) {
+            shedder.recordLatency(200);
+        }
+        assertEquals(4, shedder.update(0));
+        assertTrue(shedder.getLatencyMillis() > 150);
+
+        // Latency decays while nothing is written
+        for (int i = 0; i < 20; i++) {
+            shedder.update(0);
+        }
+        assertEquals(0, shedder.getSheddingLevel());
+    }
+
+}
@@ -1,11 +1,17 @@
 package org.log4mongo;
 
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 import org.bson.Document;
 import org.junit.Test;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TestLoggingEventBsonifierImpl {
 
@@ -21,6 +27,32 @@ public class TestLoggingEventBsonifierImpl {
         assertEquals(sb.toString(), retrievedValue);
     }
 
+    @Test
+    public void testLeanMode() {
+        LoggingEventBsonifierImpl bsonifier = new LoggingEventBsonifierImpl();
+        Exception exception = new Exception("failed");
+        StackTraceElement[] stackTrace = new StackTraceElement[20];
+        for (int i = 0; i < stackTrace.length; i++) {
+            stackTrace[i] = new StackTraceElement("Foo", "bar", "Foo.java", i);
+        }
+        exception.setStackTrace(stackTrace);
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), Logger.getLogger("test"), Level.ERROR,
+                "message", exception);
+
+        Document full = bsonifier.bsonify(event);
+        assertTrue(full.containsKey("fileName"));
+        Document throwable = (Document) ((List<?>) full.get("throwables")).get(0);
+        assertEquals(20, ((List<?>) throwable.get("stackTrace")).size());
+        assertFalse(throwable.containsKey("omittedFrames"));
+
+        Document lean = bsonifier.bsonify(event, true);
+        assertFalse(lean.containsKey("fileName"));
+        throwable = (Document) ((List<?>) lean.get("throwables")).get(0);
+        assertEquals(8, ((List<?>) throwable.get("stackTrace")).size());
+        assertEquals(12, throwable.get("omittedFrames"));
+        assertEquals("failed", throwable.get("message"));
+    }
+
     // Create a subclass so I can test a protected method
     // Replace this after extending Privateer to support superclasses in method signature
     public class LoggingEventBsonifierImplSubclass extends LoggingEventBsonifierImpl {
@@ -0,0 +1,51 @@
+package org.log4mongo;
+
+import com.mongodb.MongoCompressor;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for client options of MongoDbAppender, no MongoDB server is required.
+ */
+public class TestMongoClientOptions {
+
+    private List<MongoCompressor> compressors(String setting) {
+        MongoDbAppender appender = new MongoDbAppender();
+        appender.setCompressors(setting);
+        return appender.getMongoClientOptionsBuilder().build().getCompressorList();
+    }
+
+    @Test
+    public void testDefaultCompressor() {
+        List<MongoCompressor> list = new MongoDbAppender().getMongoClientOptionsBuilder().build().getCompressorList();
+        assertEquals(1, list.size());
+        assertEquals("snappy", list.get(0).getName());
+    }
+
+    @Test
+    public void testCompressorList() {
+        List<MongoCompressor> list = compressors("snappy, ZLIB:6");
+        assertEquals(2, list.size());
+        assertEquals("snappy", list.get(0).getName());
+        assertEquals("zlib", list.get(1).getName());
+        assertEquals(Integer.valueOf(6), list.get(1).getProperty(MongoCompressor.LEVEL, 0));
+
+        assertTrue(compressors("none").isEmpty());
+        assertTrue(compressors("").isEmpty());
+        assertTrue(compressors(null).isEmpty());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testZstdRejected() {
+        compressors("zstd");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidCompressor() {
+        compressors("snappy,lz4");
+    }
+
+}
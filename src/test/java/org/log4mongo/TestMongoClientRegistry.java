@@ -0,0 +1,113 @@
+package org.log4mongo;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for MongoClientRegistry, no MongoDB server is required.
+ */
+public class TestMongoClientRegistry {
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final List<TrackedClient> clients = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (TrackedClient client : clients) {
+            if (!client.closed) {
+                client.close();
+            }
+        }
+    }
+
+    private Supplier<MongoClient> factory() {
+        return () -> {
+            created.incrementAndGet();
+            final TrackedClient client = new TrackedClient();
+            clients.add(client);
+            return client;
+        };
+    }
+
+    @Test
+    public void testAcquireRelease() {
+        Object key = Arrays.asList("single", 1);
+        MongoClient client = MongoClientRegistry.acquire(key, factory());
+        assertEquals(1, created.get());
+        assertTrue(MongoClientRegistry.release(client));
+        assertTrue(((TrackedClient) client).closed);
+
+        // A new client is created after the last one was closed
+        MongoClient another = MongoClientRegistry.acquire(key, factory());
+        assertNotSame(client, another);
+        assertEquals(2, created.get());
+        assertTrue(MongoClientRegistry.release(another));
+    }
+
+    @Test
+    public void testSharedAcquire() {
+        Object key = Arrays.asList("shared", 1);
+        MongoClient first = MongoClientRegistry.acquire(key, factory());
+        MongoClient second = MongoClientRegistry.acquire(Arrays.asList("shared", 1), factory());
+        assertSame(first, second);
+        assertEquals(1, created.get());
+
+        assertFalse(MongoClientRegistry.release(first));
+        assertFalse(((TrackedClient) first).closed);
+        assertTrue(MongoClientRegistry.release(second));
+        assertTrue(((TrackedClient) first).closed);
+    }
+
+    @Test
+    public void testDifferentOptions() {
+        MongoClient snappy = MongoClientRegistry.acquire(Arrays.asList("options", "snappy", -1), factory());
+        MongoClient zlib = MongoClientRegistry.acquire(Arrays.asList("options", "zlib", -1), factory());
+        assertNotSame(snappy, zlib);
+        assertEquals(2, created.get());
+
+        assertTrue(MongoClientRegistry.release(snappy));
+        assertFalse(((TrackedClient) zlib).closed);
+        assertTrue(MongoClientRegistry.release(zlib));
+    }
+
+    @Test
+    public void testReleaseUnregistered() {
+        TrackedClient client = (TrackedClient) factory().get();
+        assertFalse(MongoClientRegistry.release(client));
+        assertFalse(client.closed);
+
+        // Released twice, the second release is ignored
+        MongoClient shared = MongoClientRegistry.acquire(Arrays.asList("twice", 1), factory());
+        assertTrue(MongoClientRegistry.release(shared));
+        assertFalse(MongoClientRegistry.release(shared));
+    }
+
+    private static class TrackedClient extends MongoClient {
+
+        private boolean closed = false;
+
+        private TrackedClient() {
+            super(new ServerAddress("localhost", 27017), MongoClientOptions.builder().serverSelectionTimeout(100).build());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            super.close();
+        }
+
+    }
+
+}
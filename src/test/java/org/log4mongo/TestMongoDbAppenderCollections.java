@@ -0,0 +1,206 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.wombatnation.privateer.Privateer;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for the collections and indexes created by MongoDbAppender: collections prepared
+ * ahead, capped collections, deferred index building and partial TTL indexes of levels.
+ * <p>
+ * Note: these tests require that a MongoDB server is running, and (by default) assumes that server
+ * is listening on the default port (27017) on localhost. Partial TTL indexes of levels require
+ * MongoDB 5.0 or newer.
+ */
+public class TestMongoDbAppenderCollections {
+
+    private final static Logger log = Logger.getLogger(TestMongoDbAppenderCollections.class);
+
+    private final static String TEST_MONGO_SERVER_HOSTNAME = "localhost";
+
+    private final static int TEST_MONGO_SERVER_PORT = 27017;
+
+    private final static String TEST_DATABASE_NAME = "log4mongotest";
+
+    private final static String TEST_COLLECTION_NAME = "log___HOUR_INFO__";
+
+    private final static String MONGODB_APPENDER_NAME = "MongoDB";
+
+    private final static long HOUR = 3600000L;
+
+    private final Privateer p = new Privateer();
+
+    private final MongoClient mongo = new MongoClient(TEST_MONGO_SERVER_HOSTNAME, TEST_MONGO_SERVER_PORT);
+
+    private final MongoDatabase db = mongo.getDatabase(TEST_DATABASE_NAME);
+
+    private MongoDbAppender appender;
+
+    @Before
+    public void setUp() throws Exception {
+        db.drop();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (appender != null) {
+            appender.close();
+        }
+        mongo.close();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        MongoClient mongo = new MongoClient(TEST_MONGO_SERVER_HOSTNAME, TEST_MONGO_SERVER_PORT);
+        mongo.dropDatabase(TEST_DATABASE_NAME);
+        mongo.close();
+    }
+
+    @Test
+    public void testPrepareCollectionsAhead() throws Exception {
+        Properties props = getProperties();
+        props.put("log4j.appender.MongoDB.collectionPrepareAheadSeconds", "3600");
+        appender = configure(props);
+
+        // Run by scheduler at a random time in the first minute
+        p.callMethod(appender, "prepareCollections");
+
+        long now = System.currentTimeMillis();
+        String current = appender.getCollectionNames(new Date(now)).get(0);
+        String next = appender.getCollectionNames(new Date(now + HOUR)).get(0);
+        assertNotEquals(current, next);
+        assertTrue(collectionExists(current));
+        assertTrue(collectionExists(next));
+        assertTrue(indexNames(next).contains("message_1"));
+    }
+
+    @Test
+    public void testCappedCollection() throws Exception {
+        Properties props = getProperties();
+        props.put("log4j.appender.MongoDB.collectionType", "capped");
+        props.put("log4j.appender.MongoDB.cappedSizeBytes", "1048576");
+        props.put("log4j.appender.MongoDB.cappedMaxDocuments", "100");
+        appender = configure(props);
+
+        for (int i = 0; i < 150; i++) {
+            log.info("Capped entry " + i);
+        }
+
+        String name = appender.getCollectionNames(new Date()).get(0);
+        Document options = db.listCollections().filter(Filters.eq("name", name)).first().get("options", Document.class);
+        assertEquals(Boolean.TRUE, options.get("capped"));
+        assertEquals(1048576L, ((Number) options.get("size")).longValue());
+        assertEquals(100L, ((Number) options.get("max")).longValue());
+        // Oldest logs are overwritten, and there's no TTL index
+        assertEquals(100L, db.getCollection(name).count());
+        assertFalse(indexNames(name).contains("log_timeout_1"));
+    }
+
+    @Test
+    public void testDeferIndexBuild() throws Exception {
+        Properties props = getProperties();
+        props.put("log4j.appender.MongoDB.deferIndexBuild", "true");
+        appender = configure(props);
+
+        log.info("Deferred entry");
+
+        String current = appender.getCollectionNames(new Date()).get(0);
+        assertTrue(collectionExists(current));
+        assertFalse(indexNames(current).contains("message_1"));
+
+        // Collection of the previous period written before the rollover, its indexes are built later
+        String previous = appender.getCollectionNames(new Date(System.currentTimeMillis() - HOUR)).get(0);
+        appender.ensureCollection(db, previous);
+        assertFalse(indexNames(previous).contains("message_1"));
+        p.callMethod(appender, "buildPreviousPeriodIndexes");
+        assertTrue(indexNames(previous).contains("message_1"));
+        assertFalse(indexNames(current).contains("message_1"));
+    }
+
+    @Test
+    public void testLevelTimeoutIndexes() throws Exception {
+        Properties props = getProperties();
+        props.put("log4j.appender.MongoDB.retentionMode", "partialIndex");
+        props.put("log4j.appender.MongoDB.timeoutMills", "3600000,3600000,3600000,3600000,7200000,7200000");
+        appender = configure(props);
+
+        log.error("Expiring entry");
+
+        String name = appender.getCollectionNames(new Date()).get(0);
+        assertEquals(3600L, getExpireAfterSeconds(name, "log_ttl_info"));
+        assertEquals(7200L, getExpireAfterSeconds(name, "log_ttl_error"));
+        Document index = getIndex(name, "log_ttl_error");
+        assertEquals(new Document("level", "ERROR"), index.get("partialFilterExpression"));
+        assertNull(db.getCollection(name).find().first().get("log_timeout"));
+
+        // Changed timeoutMills is applied to the existing collection by collMod
+        appender.close();
+        props.put("log4j.appender.MongoDB.timeoutMills", "3600000,3600000,1800000,3600000,7200000,7200000");
+        appender = configure(props);
+        log.error("Expiring entry");
+
+        assertEquals(1800L, getExpireAfterSeconds(name, "log_ttl_info"));
+        assertEquals(7200L, getExpireAfterSeconds(name, "log_ttl_error"));
+        assertEquals(2L, db.getCollection(name).count());
+    }
+
+    private MongoDbAppender configure(Properties props) {
+        PropertyConfigurator.configure(props);
+        MongoDbAppender appender = (MongoDbAppender) Logger.getRootLogger().getAppender(MONGODB_APPENDER_NAME);
+        assertTrue(appender.isInitialized());
+        return appender;
+    }
+
+    private boolean collectionExists(String name) {
+        return db.listCollections().filter(Filters.eq("name", name)).first() != null;
+    }
+
+    private List<String> indexNames(String name) {
+        List<String> names = Lists.newArrayList();
+        for (Document index : db.getCollection(name).listIndexes()) {
+            names.add(index.getString("name"));
+        }
+        return names;
+    }
+
+    private Document getIndex(String name, String indexName) {
+        for (Document index : db.getCollection(name).listIndexes()) {
+            if (indexName.equals(index.getString("name"))) {
+                return index;
+            }
+        }
+        fail("Index " + indexName + " not found on " + name);
+        return null;
+    }
+
+    private long getExpireAfterSeconds(String name, String indexName) {
+        return ((Number) getIndex(name, indexName).get("expireAfterSeconds")).longValue();
+    }
+
+    private Properties getProperties() {
+        Properties props = new Properties();
+        props.put("log4j.rootLogger", "DEBUG, MongoDB");
+        props.put("log4j.appender.MongoDB", "org.log4mongo.MongoDbAppender");
+        props.put("log4j.appender.MongoDB.hostname", TEST_MONGO_SERVER_HOSTNAME);
+        props.put("log4j.appender.MongoDB.port", String.valueOf(TEST_MONGO_SERVER_PORT));
+        props.put("log4j.appender.MongoDB.databaseName", TEST_DATABASE_NAME);
+        props.put("log4j.appender.MongoDB.collectionName", TEST_COLLECTION_NAME);
+        props.put("log4j.appender.MongoDB.indexSetting", "message:1");
+        return props;
+    }
+}
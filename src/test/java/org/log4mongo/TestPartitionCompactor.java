@@ -0,0 +1,72 @@
+package org.log4mongo;
+
+import org.apache.log4j.Level;
+import org.bson.Document;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for PartitionCompactor and PartitionLease, no MongoDB server is required.
+ */
+public class TestPartitionCompactor {
+
+    private static final Date TIME = new Date(1519900000000L);
+
+    @Test
+    public void testDailyTemplate() {
+        assertEquals("log___DAY_INFO__", PartitionCompactor.getDailyTemplate("log___HOUR_INFO__"));
+        assertEquals("log___LEVEL_INFO_____DAY_INFO__",
+                PartitionCompactor.getDailyTemplate("log___LEVEL_INFO_____HOUR_INFO__"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTemplateWithoutHour() {
+        new PartitionCompactor(null, "log___DAY_INFO__", coll -> {
+        });
+    }
+
+    @Test
+    public void testDailyPartition() {
+        PartitionCompactor compactor = new PartitionCompactor(null, "log___HOUR_INFO__", coll -> {
+        });
+        String hourly = MongoDbAppender.resolveCollectionName("log___HOUR_INFO__", TIME, null);
+        assertEquals(MongoDbAppender.resolveCollectionName("log___DAY_INFO__", TIME, null),
+                compactor.getDailyPartition(hourly));
+        // Not hourly partitions of the template
+        assertNull(compactor.getDailyPartition(MongoDbAppender.resolveCollectionName("log___DAY_INFO__", TIME, null)));
+        assertNull(compactor.getDailyPartition("other"));
+        assertNull(compactor.getDailyPartition("log4mongo_leases"));
+    }
+
+    @Test
+    public void testLevelDailyPartition() {
+        PartitionCompactor compactor = new PartitionCompactor(null, "log___LEVEL_INFO_____HOUR_INFO__", coll -> {
+        });
+        String hourly = MongoDbAppender.resolveCollectionName("log___LEVEL_INFO_____HOUR_INFO__", TIME, Level.ERROR);
+        assertEquals(MongoDbAppender.resolveCollectionName("log___LEVEL_INFO_____DAY_INFO__", TIME, Level.ERROR),
+                compactor.getDailyPartition(hourly));
+    }
+
+    @Test
+    public void testLeaseFilter() {
+        PartitionLease lease = new PartitionLease(null, 1000);
+        assertEquals("compact:log_20180301_10", PartitionLease.getLeaseId("compact", "log_20180301_10"));
+        Document filter = lease.getFilter("compact", "log_20180301_10", 5000);
+        assertEquals("compact:log_20180301_10", filter.get("_id"));
+        List<?> or = (List<?>) filter.get("$or");
+        assertEquals(new Document("owner", lease.getOwner()), or.get(0));
+        assertEquals(new Document("expiresAt", new Document("$lte", new Date(5000))), or.get(1));
+        // Every instance is a different owner
+        assertNotEquals(lease.getOwner(), new PartitionLease(null, 1000).getOwner());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidLeaseDuration() {
+        new PartitionLease(null, 0);
+    }
+
+}
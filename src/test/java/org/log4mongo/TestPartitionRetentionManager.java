@@ -0,0 +1,61 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for PartitionRetentionManager, no MongoDB server is required.
+ */
+public class TestPartitionRetentionManager {
+
+    private static final ZoneId ZONE = ZoneOffset.UTC;
+
+    private static long millis(int year, int month, int day, int hour) {
+        return LocalDateTime.of(year, month, day, hour, 0).atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void testPartitionEnd() {
+        PartitionRetentionManager manager = new PartitionRetentionManager("log___HOUR_INFO__", ZONE);
+        assertEquals(millis(2018, 3, 1, 11), manager.getPartitionEnd("log_20180301_10"));
+        assertEquals(-1, manager.getPartitionEnd("log_20180301"));
+        assertEquals(-1, manager.getPartitionEnd("other_20180301_10"));
+
+        manager = new PartitionRetentionManager("log.__MONTH_INFO__", ZONE);
+        assertEquals(millis(2018, 4, 1, 0), manager.getPartitionEnd("log.201803"));
+        assertEquals(-1, manager.getPartitionEnd("logx201803"));
+    }
+
+    @Test
+    public void testLevelPartition() {
+        PartitionRetentionManager manager = new PartitionRetentionManager("log___LEVEL_INFO_____DAY_INFO__", ZONE);
+        assertEquals(Level.ERROR, manager.getPartitionLevel("log_error_20180301"));
+        assertEquals(millis(2018, 3, 2, 0), manager.getPartitionEnd("log_error_20180301"));
+        assertNull(new PartitionRetentionManager("log___DAY_INFO__", ZONE).getPartitionLevel("log_20180301"));
+    }
+
+    @Test
+    public void testFindExpired() {
+        PartitionRetentionManager manager = new PartitionRetentionManager("log___LEVEL_INFO_____DAY_INFO__", ZONE);
+        long day = 24L * 3600L * 1000L;
+        long[] retention = {day, day, day, day, 7 * day, 7 * day};
+        List<String> expired = manager.findExpired(
+                Lists.newArrayList("log_debug_20180301", "log_error_20180301", "log_debug_20180303", "system.views"),
+                millis(2018, 3, 4, 1), retention);
+        assertEquals(Lists.newArrayList("log_debug_20180301"), expired);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTemplateWithoutTime() {
+        new PartitionRetentionManager("log", ZONE);
+    }
+
+}
@@ -0,0 +1,38 @@
+package org.log4mongo;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for sharding collections, no MongoDB server is required.
+ */
+public class TestShardCollection {
+
+    @Test
+    public void testHashedShardKey() {
+        Document keys = IndexDefinition.parseKeys("_id:hashed");
+        assertEquals(new Document("shardCollection", "log.log_20180301")
+                        .append("key", new Document("_id", "hashed"))
+                        .append("numInitialChunks", 64),
+                MongoDbAppender.getShardCollectionCommand("log.log_20180301", keys, 64));
+    }
+
+    @Test
+    public void testHashedShardKeyWithoutInitialChunks() {
+        Document command = MongoDbAppender.getShardCollectionCommand("log.log",
+                IndexDefinition.parseKeys("_id:hashed"), 0);
+        assertFalse(command.containsKey("numInitialChunks"));
+    }
+
+    @Test
+    public void testRangeShardKey() {
+        Document keys = IndexDefinition.parseKeys("host.name:1,timestamp:1");
+        // Range shard key can't be pre-split, numInitialChunks is dropped
+        assertEquals(new Document("shardCollection", "log.log")
+                        .append("key", new Document("host.name", 1).append("timestamp", 1)),
+                MongoDbAppender.getShardCollectionCommand("log.log", keys, 64));
+    }
+
+}
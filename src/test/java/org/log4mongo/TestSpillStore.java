@@ -0,0 +1,174 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import org.bson.Document;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for SpillStore, no MongoDB server is required.
+ */
+public class TestSpillStore {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayInOrderAcrossSegments() throws Exception {
+        File dir = folder.newFolder();
+        List<Document> replayed = Lists.newArrayList();
+        try (SpillStore store = new SpillStore(dir, "test", 1024, 100)) {
+            for (int i = 0; i < 50; i++) {
+                assertTrue(store.append(new Document("i", i).append("timestamp", new Date(i))));
+            }
+            assertTrue(dir.listFiles((d, name) -> name.endsWith(".spill")).length > 1);
+            while (store.replay(replayed::addAll, 7) > 0) {
+            }
+            assertTrue(store.isEmpty());
+        }
+        assertEquals(50, replayed.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) replayed.get(i).getInteger("i"));
+            assertEquals(new Date(i), replayed.get(i).getDate("timestamp"));
+        }
+        assertEquals(0, dir.listFiles((d, name) -> name.endsWith(".spill")).length);
+    }
+
+    @Test
+    public void testAppendWhileReplaying() throws Exception {
+        try (SpillStore store = new SpillStore(folder.newFolder(), "test", 4096, 1)) {
+            store.append(new Document("i", 1));
+            List<Document> replayed = Lists.newArrayList();
+            store.replay(documents -> {
+                // The store is not locked while the documents are being written
+                Thread appender = new Thread(() -> {
+                    try {
+                        store.append(new Document("i", 2));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                appender.start();
+                try {
+                    appender.join(5000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                assertFalse(appender.isAlive());
+                replayed.addAll(documents);
+            }, 10);
+            assertEquals(1, store.replay(replayed::addAll, 10));
+            assertEquals(2, (int) replayed.get(1).getInteger("i"));
+        }
+    }
+
+    @Test
+    public void testLockedByAnotherStore() throws Exception {
+        File dir = folder.newFolder();
+        try (SpillStore store = new SpillStore(dir, "test", 4096, 1)) {
+            assertTrue(store.isEmpty());
+            try (SpillStore another = new SpillStore(dir, "test", 4096, 1)) {
+                fail("Opened " + another + " while it's locked");
+            } catch (IOException expected) {
+            }
+            // Other prefixes have their own lock
+            new SpillStore(dir, "other", 4096, 1).close();
+        }
+        // Released after closing
+        new SpillStore(dir, "test", 4096, 1).close();
+    }
+
+    @Test
+    public void testFailedReplayIsRetried() throws Exception {
+        try (SpillStore store = new SpillStore(folder.newFolder(), "test", 4096, 1)) {
+            store.append(new Document("i", 1));
+            try {
+                store.replay(documents -> {
+                    throw new RuntimeException("failed");
+                }, 10);
+                fail();
+            } catch (RuntimeException expected) {
+            }
+            List<Document> replayed = Lists.newArrayList();
+            assertEquals(1, store.replay(replayed::addAll, 10));
+            assertEquals(1, (int) replayed.get(0).getInteger("i"));
+        }
+    }
+
+    @Test
+    public void testResumeAfterRestart() throws Exception {
+        File dir = folder.newFolder();
+        try (SpillStore store = new SpillStore(dir, "test", 4096, 10)) {
+            for (int i = 0; i < 5; i++) {
+                store.append(new Document("i", i));
+            }
+            store.replay(documents -> {
+            }, 2);
+        }
+        List<Document> replayed = Lists.newArrayList();
+        try (SpillStore store = new SpillStore(dir, "test", 4096, 10)) {
+            store.append(new Document("i", 5));
+            while (store.replay(replayed::addAll, 10) > 0) {
+            }
+        }
+        assertEquals(4, replayed.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 2, (int) replayed.get(i).getInteger("i"));
+        }
+    }
+
+    @Test
+    public void testKeepCorruptedSegment() throws Exception {
+        File dir = folder.newFolder();
+        int recordSize = 8 + SpillStore.toBson(new Document("i", 0)).length;
+        // Three records in every segment
+        try (SpillStore store = new SpillStore(dir, "test", 16 + 3 * recordSize, 10)) {
+            for (int i = 0; i < 6; i++) {
+                assertTrue(store.append(new Document("i", i)));
+            }
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".spill"));
+        assertEquals(2, files.length);
+        File first = files[0].getName().compareTo(files[1].getName()) < 0 ? files[0] : files[1];
+        try (RandomAccessFile raf = new RandomAccessFile(first, "rw")) {
+            // Flip a byte of the BSON of the second record
+            long position = 16 + recordSize + 8 + 5;
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xFF);
+        }
+
+        List<Document> replayed = Lists.newArrayList();
+        try (SpillStore store = new SpillStore(dir, "test", 16 + 3 * recordSize, 10)) {
+            while (store.replay(replayed::addAll, 10) > 0) {
+            }
+            assertTrue(store.isEmpty());
+        }
+        // Replaying stops at the corrupted record and goes on with the next segment
+        assertEquals(4, replayed.size());
+        assertEquals(0, (int) replayed.get(0).getInteger("i"));
+        assertEquals(3, (int) replayed.get(1).getInteger("i"));
+        assertFalse(first.exists());
+        assertTrue(new File(first.getPath() + ".corrupt").exists());
+    }
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        try (SpillStore store = new SpillStore(folder.newFolder(), "test", 40, 1)) {
+            assertTrue(store.append(new Document("i", 1)));
+            assertFalse(store.append(new Document("i", 2)));
+            assertFalse(store.append(new Document("large", new String(new char[100]))));
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package org.log4mongo;
+
+import com.google.common.collect.Lists;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for creating time series collections, no MongoDB server is required.
+ */
+public class TestTimeSeriesCollection {
+
+    /**
+     * @return database failing every command with the error code, commands are added to the list
+     */
+    private static MongoDatabase failingDatabase(int code, List<Object> commands) {
+        return (MongoDatabase) Proxy.newProxyInstance(MongoDatabase.class.getClassLoader(),
+                new Class<?>[]{MongoDatabase.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("runCommand")) {
+                        commands.add(args[0]);
+                        throw new MongoCommandException(new BsonDocument("ok", new BsonInt32(0))
+                                .append("code", new BsonInt32(code))
+                                .append("errmsg", new BsonString("failed")), new ServerAddress());
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static MongoDbAppender timeSeriesAppender() {
+        MongoDbAppender appender = new MongoDbAppender();
+        appender.setCollectionType("timeseries");
+        appender.setTimeSeriesMetaField("host");
+        appender.setTimeSeriesGranularity("minutes");
+        appender.setTimeSeriesExpireAfterSeconds(3600);
+        return appender;
+    }
+
+    @Test
+    public void testCreateCommand() {
+        assertEquals(new Document("create", "log_20180301")
+                        .append("timeseries", new Document("timeField", "timestamp")
+                                .append("granularity", "minutes")
+                                .append("metaField", "host"))
+                        .append("expireAfterSeconds", 3600L),
+                timeSeriesAppender().getTimeSeriesCreateCommand("log_20180301"));
+    }
+
+    @Test
+    public void testCreateCommandWithoutMetaField() {
+        MongoDbAppender appender = timeSeriesAppender();
+        appender.setTimeSeriesMetaField("");
+        Document timeSeries = appender.getTimeSeriesCreateCommand("log").get("timeseries", Document.class);
+        assertFalse(timeSeries.containsKey("metaField"));
+    }
+
+    @Test
+    public void testNamespaceExists() {
+        List<Object> commands = Lists.newArrayList();
+        // Created by another JVM in the meantime
+        timeSeriesAppender().createTimeSeriesCollection(failingDatabase(48, commands), "log");
+        assertEquals(1, commands.size());
+        assertEquals("log", ((Document) commands.get(0)).getString("create"));
+    }
+
+    @Test
+    public void testOtherErrorIsThrown() {
+        try {
+            timeSeriesAppender().createTimeSeriesCollection(failingDatabase(13, Lists.newArrayList()), "log");
+            fail();
+        } catch (MongoCommandException expected) {
+            assertEquals(13, expected.getErrorCode());
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.log4mongo;
+
+import org.bson.Document;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit unit tests for WriteAheadLog, no MongoDB server is required.
+ */
+public class TestWriteAheadLog {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverNotCommitted() throws Exception {
+        File file = new File(folder.getRoot(), "test.wal");
+        try (WriteAheadLog wal = new WriteAheadLog(file, 4096)) {
+            assertTrue(wal.recover().isEmpty());
+            long first = wal.append(new Document("i", 0));
+            long second = wal.append(new Document("i", 1));
+            long third = wal.append(new Document("i", 2));
+            wal.commit(first);
+            wal.commit(third);
+            assertEquals(1, wal.getPendingCount());
+            // Crash without closing
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file, 4096)) {
+            List<Document> recovered = wal.recover();
+            // Committed out of order, so the third one is recovered too
+            assertEquals(2, recovered.size());
+            assertEquals(1, (int) recovered.get(0).getInteger("i"));
+            assertEquals(2, (int) recovered.get(1).getInteger("i"));
+            // Truncated after recovering
+            assertTrue(wal.recover().isEmpty());
+        }
+    }
+
+    @Test
+    public void testWrapAround() throws Exception {
+        File file = new File(folder.getRoot(), "test.wal");
+        try (WriteAheadLog wal = new WriteAheadLog(file, 200)) {
+            for (int i = 0; i < 100; i++) {
+                long ticket = wal.append(new Document("i", i));
+                assertTrue(ticket >= 0);
+                if (i < 99) {
+                    wal.commit(ticket);
+                }
+            }
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file, 200)) {
+            List<Document> recovered = wal.recover();
+            assertEquals(1, recovered.size());
+            assertEquals(99, (int) recovered.get(0).getInteger("i"));
+        }
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        try (WriteAheadLog wal = new WriteAheadLog(new File(folder.getRoot(), "test.wal"), 100)) {
+            long first = wal.append(new Document("i", 0));
+            assertTrue(wal.append(new Document("i", 1)) >= 0);
+            assertTrue(wal.append(new Document("i", 2)) >= 0);
+            assertEquals(-1, wal.append(new Document("i", 3)));
+            wal.commit(first);
+            assertTrue(wal.append(new Document("i", 3)) >= 0);
+        }
+    }
+
+    @Test
+    public void testResized() throws Exception {
+        File file = new File(folder.getRoot(), "test.wal");
+        try (WriteAheadLog wal = new WriteAheadLog(file, 4096)) {
+            wal.append(new Document("i", 0));
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file, 8192)) {
+            assertTrue(wal.recover().isEmpty());
+        }
+    }
+
+    @Test
+    public void testLockedByAnotherLog() throws Exception {
+        File file = new File(folder.getRoot(), "test.wal");
+        try (WriteAheadLog wal = new WriteAheadLog(file, 4096)) {
+            wal.append(new Document("i", 0));
+            try {
+                new WriteAheadLog(file, 4096);
+                fail();
+            } catch (IOException expected) {
+            }
+        }
+        // Released after closing, the record is still there
+        try (WriteAheadLog wal = new WriteAheadLog(file, 4096)) {
+            assertEquals(1, wal.recover().size());
+        }
+    }
+
+}